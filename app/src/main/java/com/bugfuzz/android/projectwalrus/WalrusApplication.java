@@ -113,6 +113,7 @@ public class WalrusApplication extends Application {
         context = getApplicationContext();
 
         PreferenceManager.setDefaultValues(this, R.xml.preferences_chameleon_mini, false);
+        PreferenceManager.setDefaultValues(this, R.xml.preferences_proxmark3, false);
 
         HIDCardData.setup(context);
 
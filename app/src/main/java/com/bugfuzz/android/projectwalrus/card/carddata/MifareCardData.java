@@ -31,6 +31,8 @@ import com.google.common.io.BaseEncoding;
 import org.apache.commons.lang3.builder.EqualsBuilder;
 import org.apache.commons.lang3.builder.HashCodeBuilder;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.math.BigInteger;
 import java.util.ArrayList;
@@ -46,7 +48,11 @@ import java.util.Random;
 )
 public class MifareCardData extends ISO14443ACardData {
 
+    private static final long serialVersionUID = 3886931189236423708L;
+
     public final Map<SectorNumber, Sector> sectors;
+    // Not final so that cards saved before block reads existed can default it in readObject
+    public Map<BlockNumber, Block> blocks;
     @Nullable
     public SectorNumber maxSector;
 
@@ -54,6 +60,7 @@ public class MifareCardData extends ISO14443ACardData {
 
     public MifareCardData() {
         sectors = new HashMap<>();
+        blocks = new HashMap<>();
         maxSector = new SectorNumber(0);
     }
 
@@ -62,6 +69,7 @@ public class MifareCardData extends ISO14443ACardData {
         super(atqa, uid, sak, ats);
 
         this.sectors = sectors != null ? sectors : new HashMap<SectorNumber, Sector>();
+        blocks = new HashMap<>();
         this.maxSector = maxSector;
     }
 
@@ -71,6 +79,14 @@ public class MifareCardData extends ISO14443ACardData {
                 new byte[]{}, null, new SectorNumber(0));
     }
 
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+
+        if (blocks == null) {
+            blocks = new HashMap<>();
+        }
+    }
+
     // TODO: XXX this
     @Override
     public String getHumanReadableText() {
@@ -90,6 +106,16 @@ public class MifareCardData extends ISO14443ACardData {
             sb.append(entry.getKey()).append(": ").append(entry.getValue());
         }
 
+        for (Map.Entry<BlockNumber, Block> entry : blocks.entrySet()) {
+            if (!first) {
+                sb.append(", ");
+            } else {
+                first = false;
+            }
+
+            sb.append("block ").append(entry.getKey()).append(": ").append(entry.getValue());
+        }
+
         return sb.toString();
     }
 
@@ -108,6 +134,7 @@ public class MifareCardData extends ISO14443ACardData {
         return new EqualsBuilder()
                 .appendSuper(super.equals(o))
                 .append(sectors, that.sectors)
+                .append(blocks, that.blocks)
                 .isEquals();
     }
 
@@ -116,6 +143,7 @@ public class MifareCardData extends ISO14443ACardData {
         return new HashCodeBuilder(17, 37)
                 .appendSuper(super.hashCode())
                 .append(sectors)
+                .append(blocks)
                 .toHashCode();
     }
 
@@ -149,11 +177,12 @@ public class MifareCardData extends ISO14443ACardData {
 
     public static class Sector implements Serializable {
 
+        private static final long serialVersionUID = -1664603493828484678L;
+
         public final byte[] data;
 
-        // TODO XXX: >4-block sectors
-        public Sector(@Size(64) byte[] data) {
-            if (data.length != 64) {
+        public Sector(@Size(min = 64, max = 256) byte[] data) {
+            if (data.length != 64 && data.length != 256) {
                 throw new IllegalArgumentException("Invalid data length");
             }
 
@@ -192,6 +221,8 @@ public class MifareCardData extends ISO14443ACardData {
 
     public static class Key implements Serializable {
 
+        private static final long serialVersionUID = -1926910939077034431L;
+
         public final byte[] key;
 
         public Key(@Size(6) byte[] key) {
@@ -238,6 +269,8 @@ public class MifareCardData extends ISO14443ACardData {
 
     public static class SectorNumber implements Serializable, Comparable<SectorNumber> {
 
+        private static final long serialVersionUID = -5543928066246051510L;
+
         public final int number;
 
         public SectorNumber(@IntRange(from = 0, to = 39) int number) {
@@ -248,6 +281,14 @@ public class MifareCardData extends ISO14443ACardData {
             this.number = number;
         }
 
+        public int getBlockCount() {
+            return number < 32 ? 4 : 16;
+        }
+
+        public BlockNumber getFirstBlockNumber() {
+            return new BlockNumber(number < 32 ? number * 4 : 128 + (number - 32) * 16);
+        }
+
         @Override
         public String toString() {
             return "" + number;
@@ -282,4 +323,101 @@ public class MifareCardData extends ISO14443ACardData {
             return Integer.compare(number, o.number);
         }
     }
+
+    public static class Block implements Serializable {
+
+        private static final long serialVersionUID = 4734766537908817600L;
+
+        public final byte[] data;
+
+        public Block(@Size(16) byte[] data) {
+            if (data.length != 16) {
+                throw new IllegalArgumentException("Invalid data length");
+            }
+
+            this.data = data;
+        }
+
+        @Override
+        public String toString() {
+            return MiscUtils.bytesToHex(data, false);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            Block block = (Block) o;
+
+            return new EqualsBuilder()
+                    .append(data, block.data)
+                    .isEquals();
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder(17, 37)
+                    .append(data)
+                    .toHashCode();
+        }
+    }
+
+    public static class BlockNumber implements Serializable, Comparable<BlockNumber> {
+
+        private static final long serialVersionUID = 178221943775071871L;
+
+        public final int number;
+
+        public BlockNumber(@IntRange(from = 0, to = 255) int number) {
+            if (number < 0 || number > 255) {
+                throw new IllegalArgumentException("Invalid block number");
+            }
+
+            this.number = number;
+        }
+
+        public SectorNumber getSectorNumber() {
+            return new SectorNumber(number < 128 ? number / 4 : 32 + (number - 128) / 16);
+        }
+
+        @Override
+        public String toString() {
+            return "" + number;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            BlockNumber that = (BlockNumber) o;
+
+            return new EqualsBuilder()
+                    .append(number, that.number)
+                    .isEquals();
+        }
+
+        @Override
+        public int hashCode() {
+            return new HashCodeBuilder(17, 37)
+                    .append(number)
+                    .toHashCode();
+        }
+
+        @Override
+        public int compareTo(@NonNull BlockNumber o) {
+            return Integer.compare(number, o.number);
+        }
+    }
 }
@@ -72,5 +72,10 @@ public abstract class MifareReadAttempt implements Serializable {
 
     public interface Visitor<T> {
         T visit(StaticKeyMifareReadAttempt staticKeyMifareReadAttempt) throws IOException;
+
+        T visit(DictionaryMifareReadAttempt dictionaryMifareReadAttempt) throws IOException;
+
+        T visit(StaticKeyMifareBlockReadAttempt staticKeyMifareBlockReadAttempt)
+                throws IOException;
     }
 }
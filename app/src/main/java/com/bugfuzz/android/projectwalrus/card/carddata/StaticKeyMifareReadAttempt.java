@@ -42,7 +42,6 @@ import java.util.Set;
 )
 public class StaticKeyMifareReadAttempt extends MifareReadAttempt {
 
-    // TODO: single-block reads
     public final Set<MifareCardData.SectorNumber> sectorNumbers;
 
     public final MifareCardData.Key key;
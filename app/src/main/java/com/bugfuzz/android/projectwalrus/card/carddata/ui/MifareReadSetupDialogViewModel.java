@@ -24,8 +24,10 @@ import android.arch.lifecycle.MutableLiveData;
 import android.arch.lifecycle.ViewModel;
 import android.support.annotation.Nullable;
 
+import com.bugfuzz.android.projectwalrus.card.carddata.DictionaryMifareReadAttempt;
 import com.bugfuzz.android.projectwalrus.card.carddata.MifareCardData;
 import com.bugfuzz.android.projectwalrus.card.carddata.MifareReadAttempt;
+import com.bugfuzz.android.projectwalrus.card.carddata.StaticKeyMifareBlockReadAttempt;
 import com.bugfuzz.android.projectwalrus.card.carddata.StaticKeyMifareReadAttempt;
 import com.bugfuzz.android.projectwalrus.ui.SimpleBindingListAdapter;
 import com.google.common.base.Function;
@@ -149,6 +151,16 @@ public class MifareReadSetupDialogViewModel extends ViewModel {
                 StaticKeyMifareReadAttempt.class, -1));
     }
 
+    public void onAddDictionaryReadAttemptClick() {
+        showNewReadAttemptDialog.setValue(new ReadAttemptDialogInfo(null,
+                DictionaryMifareReadAttempt.class, -1));
+    }
+
+    public void onAddBlockReadAttemptClick() {
+        showNewReadAttemptDialog.setValue(new ReadAttemptDialogInfo(null,
+                StaticKeyMifareBlockReadAttempt.class, -1));
+    }
+
     public void onNewReadAttemptDialogShown() {
         showNewReadAttemptDialog.setValue(null);
     }
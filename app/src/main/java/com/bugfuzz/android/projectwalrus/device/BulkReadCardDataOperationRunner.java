@@ -64,6 +64,9 @@ public class BulkReadCardDataOperationRunner implements Runnable,
 
     private volatile boolean stop;
 
+    private volatile UsbCardDevice usbCardDevice;
+    private volatile int detachCount;
+
     public BulkReadCardDataOperationRunner(Context context,
             ReadCardDataOperation readCardDataOperation, Card cardTemplate,
             OnStopCallback onStopCallback) {
@@ -80,17 +83,37 @@ public class BulkReadCardDataOperationRunner implements Runnable,
     public void run() {
         databaseHelper = OpenHelperManager.getHelper(context, DatabaseHelper.class);
 
-        try {
-            readCardDataOperation.execute(context, this, this);
-        } catch (final IOException exception) {
-            new Handler(context.getMainLooper()).post(new Runnable() {
-                @Override
-                public void run() {
-                    Toast.makeText(context,
-                            context.getString(R.string.failed_bulk_reading, exception.getMessage()),
-                            Toast.LENGTH_LONG).show();
-                }
-            });
+        for (; ; ) {
+            CardDevice cardDevice = readCardDataOperation.getCardDevice();
+            usbCardDevice = cardDevice instanceof UsbCardDevice ? (UsbCardDevice) cardDevice : null;
+            detachCount = usbCardDevice != null ? usbCardDevice.getDetachCount() : 0;
+
+            IOException exception = null;
+            try {
+                readCardDataOperation.execute(context, this, this);
+            } catch (IOException e) {
+                exception = e;
+            }
+
+            // If the device dropped off the bus mid-read, wait for it to come back and carry on
+            // reading where we left off
+            if (!stop && wasDetached()
+                    && usbCardDevice.awaitReattach(UsbCardDevice.RECONNECT_GRACE_PERIOD)) {
+                continue;
+            }
+
+            if (exception != null) {
+                final IOException finalException = exception;
+                new Handler(context.getMainLooper()).post(new Runnable() {
+                    @Override
+                    public void run() {
+                        Toast.makeText(context, context.getString(R.string.failed_bulk_reading,
+                                finalException.getMessage()), Toast.LENGTH_LONG).show();
+                    }
+                });
+            }
+
+            break;
         }
 
         OpenHelperManager.releaseHelper();
@@ -140,7 +163,12 @@ public class BulkReadCardDataOperationRunner implements Runnable,
     @Override
     @WorkerThread
     public boolean shouldContinue() {
-        return !stop;
+        return !stop && !wasDetached();
+    }
+
+    private boolean wasDetached() {
+        UsbCardDevice usbCardDevice = this.usbCardDevice;
+        return usbCardDevice != null && usbCardDevice.getDetachCount() != detachCount;
     }
 
     @Nullable
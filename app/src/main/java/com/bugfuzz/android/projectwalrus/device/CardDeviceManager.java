@@ -26,17 +26,24 @@ import android.content.Intent;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbManager;
 import android.os.Handler;
+import android.preference.PreferenceManager;
+import android.support.annotation.Nullable;
 import android.support.v4.content.LocalBroadcastManager;
 
+import com.bugfuzz.android.projectwalrus.BuildConfig;
 import com.bugfuzz.android.projectwalrus.device.chameleonmini.ChameleonMiniDevice;
 import com.bugfuzz.android.projectwalrus.device.proxmark3.Proxmark3Device;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
@@ -57,6 +64,8 @@ public enum CardDeviceManager {
             "com.bugfuzz.android.projectwalrus.device.CardDeviceManager"
                     + ".ACTION_USB_PERMISSION_RESULT";
 
+    private static final int MAX_KEPT_TRACES = 10;
+
     private static final Set<Class<? extends UsbCardDevice>> usbCardDeviceClasses =
             new HashSet<Class<? extends UsbCardDevice>>(Arrays.asList(
                     Proxmark3Device.class,
@@ -64,6 +73,9 @@ public enum CardDeviceManager {
 
     private final Map<Integer, CardDevice> cardDevices = new LinkedHashMap<>();
 
+    private final Map<UsbCardDevice, Runnable> pendingRemovals = new HashMap<>();
+    private Handler handler;
+
     private final Set<UsbDevice> seenUsbDevices =
             Collections.synchronizedSet(new HashSet<UsbDevice>());
     private boolean askingForUsbPermission;
@@ -112,39 +124,47 @@ public enum CardDeviceManager {
         }
     }
 
-    private void handleUsbDeviceDetached(Context context, UsbDevice usbDevice) {
-        Iterator<Map.Entry<Integer, CardDevice>> it = cardDevices.entrySet().iterator();
-        while (it.hasNext()) {
-            final CardDevice cardDevice = it.next().getValue();
-
+    private void handleUsbDeviceDetached(final Context context, UsbDevice usbDevice) {
+        for (CardDevice cardDevice : new ArrayList<>(cardDevices.values())) {
             if (!(cardDevice instanceof UsbCardDevice)) {
                 continue;
             }
 
-            UsbCardDevice usbCardDevice = (UsbCardDevice) cardDevice;
+            final UsbCardDevice usbCardDevice = (UsbCardDevice) cardDevice;
 
-            if (!usbCardDevice.getUsbDevice().equals(usbDevice)) {
+            if (!usbDevice.equals(usbCardDevice.getUsbDevice())) {
                 continue;
             }
 
-            it.remove();
-
-            usbCardDevice.close();
+            // Keep the device around for a while so that a quick reattach (e.g. a flaky cable)
+            // can be rebound to it without interrupting its operations
+            usbCardDevice.detach();
 
-            Intent broadcastIntent = new Intent(ACTION_UPDATE);
-            broadcastIntent.putExtra(EXTRA_DEVICE_WAS_ADDED, false);
-            broadcastIntent.putExtra(EXTRA_DEVICE_NAME,
-                    cardDevice.getClass().getAnnotation(UsbCardDevice.Metadata.class).name());
-            LocalBroadcastManager.getInstance(context).sendBroadcast(broadcastIntent);
-
-            new Handler(context.getMainLooper()).post(new Runnable() {
+            Runnable removal = new Runnable() {
                 @Override
                 public void run() {
-                    // noinspection StatementWithEmptyBody
-                    while (cardDevices.values().remove(cardDevice)) {
+                    synchronized (pendingRemovals) {
+                        if (pendingRemovals.get(usbCardDevice) != this) {
+                            return;
+                        }
+
+                        pendingRemovals.remove(usbCardDevice);
+                    }
+
+                    if (usbCardDevice.isDetached()) {
+                        removeUsbCardDevice(context, usbCardDevice);
                     }
                 }
-            });
+            };
+
+            synchronized (pendingRemovals) {
+                Runnable previousRemoval = pendingRemovals.put(usbCardDevice, removal);
+                if (previousRemoval != null) {
+                    getHandler(context).removeCallbacks(previousRemoval);
+                }
+            }
+
+            getHandler(context).postDelayed(removal, UsbCardDevice.RECONNECT_GRACE_PERIOD);
 
             break;
         }
@@ -152,9 +172,143 @@ public enum CardDeviceManager {
         seenUsbDevices.remove(usbDevice);
     }
 
+    private void cancelPendingRemoval(Context context, UsbCardDevice usbCardDevice) {
+        synchronized (pendingRemovals) {
+            Runnable removal = pendingRemovals.remove(usbCardDevice);
+            if (removal != null) {
+                getHandler(context).removeCallbacks(removal);
+            }
+        }
+    }
+
+    private synchronized Handler getHandler(Context context) {
+        if (handler == null) {
+            handler = new Handler(context.getMainLooper());
+        }
+
+        return handler;
+    }
+
+    private void removeUsbCardDevice(Context context, UsbCardDevice usbCardDevice) {
+        // noinspection StatementWithEmptyBody
+        while (cardDevices.values().remove(usbCardDevice)) {
+        }
+
+        usbCardDevice.close();
+
+        Intent broadcastIntent = new Intent(ACTION_UPDATE);
+        broadcastIntent.putExtra(EXTRA_DEVICE_WAS_ADDED, false);
+        broadcastIntent.putExtra(EXTRA_DEVICE_NAME,
+                usbCardDevice.getClass().getAnnotation(UsbCardDevice.Metadata.class).name());
+        LocalBroadcastManager.getInstance(context).sendBroadcast(broadcastIntent);
+    }
+
+    @Nullable
+    private UsbCardDevice findDetachedUsbCardDevice(UsbDevice usbDevice) {
+        for (CardDevice cardDevice : new ArrayList<>(cardDevices.values())) {
+            if (!(cardDevice instanceof UsbCardDevice)) {
+                continue;
+            }
+
+            UsbCardDevice usbCardDevice = (UsbCardDevice) cardDevice;
+            if (usbCardDevice.isDetached() && usbCardDevice.isSameUsbDevice(usbDevice)) {
+                return usbCardDevice;
+            }
+        }
+
+        return null;
+    }
+
     public void addDebugDevice(Context context) {
         DebugDevice debugDevice = new DebugDevice(context);
         cardDevices.put(debugDevice.getId(), debugDevice);
+
+        addReplayDevices(context);
+    }
+
+    // Traces dropped into the app's external "replay" directory show up as devices in debug
+    // builds
+    private void addReplayDevices(Context context) {
+        File replayDir = context.getExternalFilesDir("replay");
+        File[] traces = replayDir != null ? replayDir.listFiles() : null;
+        if (traces == null) {
+            return;
+        }
+
+        for (File trace : traces) {
+            UsbSerialCardDevice<?> cardDevice;
+            try {
+                ReplaySerialTransport replaySerialTransport = new ReplaySerialTransport(trace,
+                        ReplaySerialTransport.Pacing.LOCKSTEP);
+
+                Constructor<? extends UsbSerialCardDevice> constructor =
+                        Class.forName(replaySerialTransport.getDeviceClassName())
+                                .asSubclass(UsbSerialCardDevice.class)
+                                .getConstructor(Context.class, SerialTransport.class);
+                cardDevice = constructor.newInstance(context, replaySerialTransport);
+            } catch (IOException | ClassNotFoundException | ClassCastException
+                    | NoSuchMethodException | InstantiationException | InvocationTargetException
+                    | IllegalAccessException e) {
+                continue;
+            }
+
+            try {
+                cardDevice.start();
+            } catch (IOException e) {
+                cardDevice.close();
+                continue;
+            }
+
+            cardDevices.put(cardDevice.getId(), cardDevice);
+        }
+    }
+
+    // Debug builds can capture each serial device's traffic to the app's external "traces"
+    // directory, from where it can be pulled and replayed
+    private static void startDebugCapture(Context context, UsbCardDevice usbCardDevice) {
+        if (!(usbCardDevice instanceof UsbSerialCardDevice)) {
+            return;
+        }
+
+        if (!PreferenceManager.getDefaultSharedPreferences(context).getBoolean(
+                "pref_key_capture_serial_traces", false)) {
+            return;
+        }
+
+        File tracesDir = context.getExternalFilesDir("traces");
+        if (tracesDir == null) {
+            return;
+        }
+
+        deleteOldTraces(tracesDir);
+
+        // CHECKSTYLE:OFF EmptyCatchBlock
+        try {
+            ((UsbSerialCardDevice<?>) usbCardDevice).startCapture(new File(tracesDir,
+                    usbCardDevice.getClass().getSimpleName() + "-" + System.currentTimeMillis()
+                            + ".trace"));
+        } catch (IOException ignored) {
+        }
+        // CHECKSTYLE:ON EmptyCatchBlock
+    }
+
+    // Makes room for a new trace by deleting all but the newest few
+    private static void deleteOldTraces(File tracesDir) {
+        File[] traces = tracesDir.listFiles();
+        if (traces == null || traces.length < MAX_KEPT_TRACES) {
+            return;
+        }
+
+        Arrays.sort(traces, new Comparator<File>() {
+            @Override
+            public int compare(File lhs, File rhs) {
+                return Long.compare(rhs.lastModified(), lhs.lastModified());
+            }
+        });
+
+        for (int i = MAX_KEPT_TRACES - 1; i < traces.length; ++i) {
+            traces[i].delete();
+        }
     }
 
     public Map<Integer, CardDevice> getCardDevices() {
@@ -218,6 +372,22 @@ public enum CardDeviceManager {
 
         @Override
         public void run() {
+            UsbCardDevice detachedUsbCardDevice =
+                    CardDeviceManager.INSTANCE.findDetachedUsbCardDevice(usbDevice);
+            if (detachedUsbCardDevice != null) {
+                // CHECKSTYLE:OFF EmptyCatchBlock
+                try {
+                    detachedUsbCardDevice.rebind(usbDevice);
+                    CardDeviceManager.INSTANCE.cancelPendingRemoval(context,
+                            detachedUsbCardDevice);
+
+                    CardDeviceManager.INSTANCE.scanForDevices(context);
+                    return;
+                } catch (IOException ignored) {
+                }
+                // CHECKSTYLE:ON EmptyCatchBlock
+            }
+
             for (Class<? extends UsbCardDevice> klass : usbCardDeviceClasses) {
                 UsbCardDevice.UsbIds usbIds = klass.getAnnotation(
                         UsbCardDevice.UsbIds.class);
@@ -239,6 +409,17 @@ public enum CardDeviceManager {
                             continue;
                         }
 
+                        try {
+                            cardDevice.start();
+                        } catch (IOException e) {
+                            cardDevice.close();
+                            continue;
+                        }
+
+                        if (BuildConfig.DEBUG) {
+                            startDebugCapture(context, cardDevice);
+                        }
+
                         new Handler(context.getMainLooper()).post(new Runnable() {
                             @Override
                             public void run() {
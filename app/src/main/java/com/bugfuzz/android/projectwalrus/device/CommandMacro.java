@@ -0,0 +1,68 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bugfuzz.android.projectwalrus.device;
+
+import android.support.annotation.Nullable;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class CommandMacro<T> {
+
+    private final List<Step<T>> steps = new ArrayList<>();
+
+    public CommandMacro<T> addStep(T command, @Nullable ResponseMatcher<T> responseMatcher) {
+        steps.add(new Step<>(command, responseMatcher));
+        return this;
+    }
+
+    public List<Step<T>> getSteps() {
+        return Collections.unmodifiableList(steps);
+    }
+
+    public int size() {
+        return steps.size();
+    }
+
+    public interface ResponseMatcher<T> {
+        boolean matches(T response);
+    }
+
+    public static class Step<T> {
+
+        private final T command;
+        @Nullable
+        private final ResponseMatcher<T> responseMatcher;
+
+        Step(T command, @Nullable ResponseMatcher<T> responseMatcher) {
+            this.command = command;
+            this.responseMatcher = responseMatcher;
+        }
+
+        public T getCommand() {
+            return command;
+        }
+
+        @Nullable
+        public ResponseMatcher<T> getResponseMatcher() {
+            return responseMatcher;
+        }
+    }
+}
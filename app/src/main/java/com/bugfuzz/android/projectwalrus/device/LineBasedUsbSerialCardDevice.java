@@ -21,48 +21,93 @@ package com.bugfuzz.android.projectwalrus.device;
 
 import android.content.Context;
 import android.hardware.usb.UsbDevice;
-import android.util.Pair;
+import android.support.annotation.Nullable;
+
+import com.bugfuzz.android.projectwalrus.util.ByteRingBuffer;
 
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
 
 public abstract class LineBasedUsbSerialCardDevice extends UsbSerialCardDevice<String> {
 
     private final String delimiter;
-    private final String charsetName;
+    private final Charset charset;
+
+    private final byte[] delimiterBytes;
+    private final CharsetDecoder decoder;
+
+    private ByteBuffer lineBytes = ByteBuffer.allocate(256);
+    private CharBuffer lineChars = CharBuffer.allocate(256);
+    private int scanPosition;
 
     protected LineBasedUsbSerialCardDevice(Context context, UsbDevice usbDevice, String delimiter,
             String charsetName, String status) throws IOException {
-        super(context, usbDevice, status);
+        this(context, usbDevice, null, delimiter, charsetName, status);
+    }
+
+    protected LineBasedUsbSerialCardDevice(Context context, SerialTransport serialTransport,
+            String delimiter, String charsetName, String status) throws IOException {
+        this(context, null, serialTransport, delimiter, charsetName, status);
+    }
+
+    private LineBasedUsbSerialCardDevice(Context context, @Nullable UsbDevice usbDevice,
+            @Nullable SerialTransport serialTransport, String delimiter, String charsetName,
+            String status) throws IOException {
+        super(context, usbDevice, serialTransport, status);
 
         this.delimiter = delimiter;
-        this.charsetName = charsetName;
+        charset = Charset.forName(charsetName);
+
+        delimiterBytes = delimiter.getBytes(charset);
+        decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
     }
 
     @Override
-    protected Pair<String, Integer> sliceIncoming(byte[] in) {
-        String string;
-        try {
-            string = new String(in, charsetName);
-        } catch (UnsupportedEncodingException e) {
+    protected String sliceIncoming(ByteRingBuffer in) {
+        int index = in.indexOf(delimiterBytes, Math.min(scanPosition, in.size()));
+        if (index == -1) {
+            scanPosition = Math.max(in.size() - delimiterBytes.length + 1, 0);
             return null;
         }
 
-        int index = string.indexOf(delimiter);
-        if (index == -1) {
-            return null;
+        scanPosition = 0;
+
+        String line = decodeLine(in, index);
+        in.skip(index + delimiterBytes.length);
+
+        return line;
+    }
+
+    private String decodeLine(ByteRingBuffer in, int length) {
+        if (lineBytes.capacity() < length) {
+            lineBytes = ByteBuffer.allocate(length);
         }
+        lineBytes.clear();
+        in.read(0, lineBytes.array(), 0, length);
+        lineBytes.limit(length);
 
-        // TODO FIXME: this is assuming 1 char == 1 byte
-        return new Pair<>(string.substring(0, index), index + delimiter.length());
+        int maxChars = (int) Math.ceil(length * (double) decoder.maxCharsPerByte());
+        if (lineChars.capacity() < maxChars) {
+            lineChars = CharBuffer.allocate(maxChars);
+        }
+        lineChars.clear();
+
+        decoder.reset();
+        decoder.decode(lineBytes, lineChars, true);
+        decoder.flush(lineChars);
+        lineChars.flip();
+
+        return lineChars.toString();
     }
 
     @Override
     protected byte[] formatOutgoing(String out) {
-        try {
-            return (out + delimiter).getBytes(charsetName);
-        } catch (UnsupportedEncodingException e) {
-            return null;
-        }
+        return (out + delimiter).getBytes(charset);
     }
 }
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bugfuzz.android.projectwalrus.device;
+
+import com.bugfuzz.android.projectwalrus.util.ByteRingBuffer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+// An in-memory transport for driving a serial card device from the JVM, e.g. from tests, with
+// the other end played through getDeviceInputStream() and getDeviceOutputStream()
+public class PipeSerialTransport implements SerialTransport {
+
+    private final Pipe hostToDevice = new Pipe();
+    private final Pipe deviceToHost = new Pipe();
+
+    private Thread readThread;
+
+    public InputStream getDeviceInputStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                return read(b, 0, 1) == -1 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return hostToDevice.read(b, off, len);
+            }
+
+            @Override
+            public int available() {
+                return hostToDevice.available();
+            }
+        };
+    }
+
+    public OutputStream getDeviceOutputStream() {
+        return new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                deviceToHost.write(b, off, len);
+            }
+        };
+    }
+
+    @Override
+    public void open(final ReadCallback readCallback) {
+        readThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[4096];
+
+                // CHECKSTYLE:OFF EmptyCatchBlock
+                try {
+                    for (; ; ) {
+                        int length = deviceToHost.read(buffer, 0, buffer.length);
+                        if (length == -1) {
+                            break;
+                        }
+
+                        readCallback.onReceived(Arrays.copyOf(buffer, length));
+                    }
+                } catch (IOException ignored) {
+                }
+                // CHECKSTYLE:ON EmptyCatchBlock
+            }
+        }, "PipeSerialTransport");
+        readThread.setDaemon(true);
+        readThread.start();
+    }
+
+    @Override
+    public void write(byte[] bytes) {
+        // CHECKSTYLE:OFF EmptyCatchBlock
+        try {
+            hostToDevice.write(bytes, 0, bytes.length);
+        } catch (IOException ignored) {
+        }
+        // CHECKSTYLE:ON EmptyCatchBlock
+    }
+
+    @Override
+    public void close() {
+        hostToDevice.close();
+        deviceToHost.close();
+
+        readThread = null;
+    }
+
+    // Unlike PipedInputStream/PipedOutputStream, doesn't tie either end to the thread that last
+    // used it, so writers and readers may come and go. Once closed, reads drain what is left and
+    // then return -1, and writes fail.
+    private static class Pipe {
+
+        private final ByteRingBuffer buffer = new ByteRingBuffer(4096);
+        private boolean closed;
+
+        synchronized void write(byte[] b, int off, int len) throws IOException {
+            if (closed) {
+                throw new IOException("Pipe closed");
+            }
+
+            buffer.write(b, off, len);
+            notifyAll();
+        }
+
+        synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+
+            while (buffer.size() == 0 && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                }
+            }
+
+            if (buffer.size() == 0) {
+                return -1;
+            }
+
+            int length = Math.min(len, buffer.size());
+            buffer.read(0, b, off, length);
+            buffer.skip(length);
+
+            return length;
+        }
+
+        synchronized int available() {
+            return buffer.size();
+        }
+
+        synchronized void close() {
+            closed = true;
+            notifyAll();
+        }
+    }
+}
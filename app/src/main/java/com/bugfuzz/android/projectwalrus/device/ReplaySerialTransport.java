@@ -0,0 +1,151 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bugfuzz.android.projectwalrus.device;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+// Debug builds only: replays a trace captured by UsbSerialCardDevice.startCapture()
+public class ReplaySerialTransport implements SerialTransport {
+
+    private static final long LOCKSTEP_TIMEOUT = 5000;
+
+    private final SerialTrace.Reader traceReader;
+    private final Pacing pacing;
+
+    private final Object writtenLock = new Object();
+    private long writtenLength;
+
+    private Thread replayThread;
+    private volatile boolean finished;
+    private volatile boolean diverged;
+
+    public ReplaySerialTransport(File trace, Pacing pacing) throws IOException {
+        traceReader = new SerialTrace.Reader(trace);
+        this.pacing = pacing;
+    }
+
+    public String getDeviceClassName() {
+        return traceReader.getDeviceClassName();
+    }
+
+    public boolean isFinished() {
+        return finished;
+    }
+
+    public boolean hasDiverged() {
+        return diverged;
+    }
+
+    @Override
+    public void open(final ReadCallback readCallback) {
+        replayThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long startedAt = System.nanoTime();
+                long tracedWrittenLength = traceReader.getWrittenBeforeCapture();
+
+                // CHECKSTYLE:OFF EmptyCatchBlock
+                try {
+                    replay:
+                    for (; ; ) {
+                        SerialTrace.Record record = traceReader.read();
+                        if (record == null) {
+                            break;
+                        }
+
+                        if (record.direction == SerialTrace.DIRECTION_OUT) {
+                            tracedWrittenLength += record.bytes.length;
+                            continue;
+                        }
+
+                        switch (pacing) {
+                            case REAL_TIME:
+                                long delay = startedAt + record.timestamp - System.nanoTime();
+                                if (delay > 0) {
+                                    Thread.sleep(delay / 1000000, (int) (delay % 1000000));
+                                }
+                                break;
+
+                            case LOCKSTEP:
+                                if (!awaitWritten(tracedWrittenLength)) {
+                                    // The device hasn't written what it did when traced, so
+                                    // the rest of the trace no longer applies
+                                    diverged = true;
+                                    break replay;
+                                }
+                                break;
+                        }
+
+                        readCallback.onReceived(record.bytes);
+                    }
+                } catch (IOException | InterruptedException ignored) {
+                }
+                // CHECKSTYLE:ON EmptyCatchBlock
+
+                finished = true;
+            }
+        }, "ReplaySerialTransport");
+        replayThread.setDaemon(true);
+        replayThread.start();
+    }
+
+    private boolean awaitWritten(long length) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOCKSTEP_TIMEOUT);
+
+        synchronized (writtenLock) {
+            while (writtenLength < length) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    return false;
+                }
+
+                TimeUnit.NANOSECONDS.timedWait(writtenLock, remaining);
+            }
+        }
+
+        return true;
+    }
+
+    @Override
+    public void write(byte[] bytes) {
+        synchronized (writtenLock) {
+            writtenLength += bytes.length;
+            writtenLock.notifyAll();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (replayThread != null) {
+            replayThread.interrupt();
+            replayThread = null;
+        }
+
+        traceReader.close();
+    }
+
+    public enum Pacing {
+        AS_FAST_AS_POSSIBLE,
+        REAL_TIME,
+        LOCKSTEP
+    }
+}
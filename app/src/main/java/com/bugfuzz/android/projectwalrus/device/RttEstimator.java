@@ -0,0 +1,75 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bugfuzz.android.projectwalrus.device;
+
+import java.util.concurrent.TimeUnit;
+
+public class RttEstimator {
+
+    private long minTimeout;
+    private long maxTimeout;
+
+    private boolean sampled;
+    private long smoothedRtt;
+    private long rttVariance;
+    private long timeout;
+
+    public RttEstimator(long initialTimeout, long minTimeout, long maxTimeout) {
+        setLimits(minTimeout, maxTimeout);
+
+        timeout = clamp(initialTimeout);
+    }
+
+    public synchronized void setLimits(long minTimeout, long maxTimeout) {
+        if (minTimeout <= 0 || maxTimeout < minTimeout) {
+            throw new IllegalArgumentException("Invalid timeout limits");
+        }
+
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+    }
+
+    public synchronized long getTimeout() {
+        return clamp(timeout);
+    }
+
+    public synchronized void onSample(long rtt) {
+        // As in TCP (RFC 6298), with alpha = 1/8 and beta = 1/4. The estimates are kept in
+        // nanoseconds so that integer truncation doesn't leave a residual variance behind.
+        if (!sampled) {
+            smoothedRtt = rtt;
+            rttVariance = rtt / 2;
+            sampled = true;
+        } else {
+            rttVariance += (Math.abs(smoothedRtt - rtt) - rttVariance) / 4;
+            smoothedRtt += (rtt - smoothedRtt) / 8;
+        }
+
+        timeout = clamp(TimeUnit.NANOSECONDS.toMillis(smoothedRtt + 4 * rttVariance));
+    }
+
+    public synchronized void onTimeout() {
+        timeout = clamp(timeout * 2);
+    }
+
+    private long clamp(long timeout) {
+        return Math.max(minTimeout, Math.min(timeout, maxTimeout));
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bugfuzz.android.projectwalrus.device;
+
+import android.support.annotation.Nullable;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+public class SerialDeviceStats {
+
+    private static final int MAX_OUTSTANDING_COMMANDS = 64;
+    private static final long OUTSTANDING_COMMAND_EXPIRY = TimeUnit.SECONDS.toNanos(30);
+
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong framesIn = new AtomicLong();
+    private final AtomicLong framesOut = new AtomicLong();
+    private final AtomicLong framesDropped = new AtomicLong();
+
+    private final ConcurrentMap<String, LatencyHistogram> latencies =
+            new ConcurrentHashMap<>();
+    private final Queue<OutstandingCommand> outstandingCommands = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger outstandingCommandCount = new AtomicInteger();
+
+    void onBytesIn(int count) {
+        bytesIn.addAndGet(count);
+    }
+
+    void onBytesOut(int count) {
+        bytesOut.addAndGet(count);
+    }
+
+    void onFrameIn(boolean response, @Nullable String responseKey) {
+        framesIn.incrementAndGet();
+
+        if (!response) {
+            return;
+        }
+
+        // Keyed responses answer the oldest command with the same key, even if other commands
+        // were sent before it, while unkeyed ones can only be paired in order
+        long now = System.nanoTime();
+        for (Iterator<OutstandingCommand> it = outstandingCommands.iterator(); it.hasNext(); ) {
+            OutstandingCommand outstandingCommand = it.next();
+
+            long latency = now - outstandingCommand.sentAt;
+            if (latency >= OUTSTANDING_COMMAND_EXPIRY) {
+                if (outstandingCommands.remove(outstandingCommand)) {
+                    outstandingCommandCount.decrementAndGet();
+                }
+                continue;
+            }
+
+            if (responseKey != null && !responseKey.equals(outstandingCommand.key)) {
+                continue;
+            }
+
+            if (outstandingCommands.remove(outstandingCommand)) {
+                outstandingCommandCount.decrementAndGet();
+                getLatencyHistogram(outstandingCommand.key).record(latency);
+            }
+            return;
+        }
+    }
+
+    void onFrameOut(@Nullable String commandKey, boolean expectsResponse) {
+        framesOut.incrementAndGet();
+
+        if (commandKey == null || !expectsResponse) {
+            return;
+        }
+
+        if (outstandingCommandCount.incrementAndGet() > MAX_OUTSTANDING_COMMANDS
+                && outstandingCommands.poll() != null) {
+            outstandingCommandCount.decrementAndGet();
+        }
+
+        outstandingCommands.add(new OutstandingCommand(commandKey, System.nanoTime()));
+    }
+
+    void onFramesDropped(long count) {
+        framesDropped.addAndGet(count);
+    }
+
+    private LatencyHistogram getLatencyHistogram(String key) {
+        LatencyHistogram latencyHistogram = latencies.get(key);
+        if (latencyHistogram == null) {
+            latencyHistogram = new LatencyHistogram();
+
+            LatencyHistogram existing = latencies.putIfAbsent(key, latencyHistogram);
+            if (existing != null) {
+                latencyHistogram = existing;
+            }
+        }
+
+        return latencyHistogram;
+    }
+
+    public long getBytesIn() {
+        return bytesIn.get();
+    }
+
+    public long getBytesOut() {
+        return bytesOut.get();
+    }
+
+    public long getFramesIn() {
+        return framesIn.get();
+    }
+
+    public long getFramesOut() {
+        return framesOut.get();
+    }
+
+    public long getFramesDropped() {
+        return framesDropped.get();
+    }
+
+    public SortedMap<String, LatencyHistogram> getLatencies() {
+        return Collections.unmodifiableSortedMap(new TreeMap<>(latencies));
+    }
+
+    public static class LatencyHistogram {
+
+        // Bucket i counts latencies in [2^i, 2^(i + 1)) microseconds
+        private static final int BUCKET_COUNT = 25;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong total = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+
+        void record(long latency) {
+            long micros = Math.max(TimeUnit.NANOSECONDS.toMicros(latency), 1);
+            int bucket = Math.min(63 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+
+            buckets.incrementAndGet(bucket);
+            count.incrementAndGet();
+            total.addAndGet(latency);
+
+            for (; ; ) {
+                long currentMax = max.get();
+                if (latency <= currentMax || max.compareAndSet(currentMax, latency)) {
+                    break;
+                }
+            }
+        }
+
+        public long getCount() {
+            return count.get();
+        }
+
+        public long getMean() {
+            long count = this.count.get();
+            return count != 0 ? total.get() / count : 0;
+        }
+
+        public long getMax() {
+            return max.get();
+        }
+
+        public long getPercentile(double percentile) {
+            long count = this.count.get();
+            if (count == 0) {
+                return 0;
+            }
+
+            long threshold = (long) Math.ceil(count * percentile / 100);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; ++i) {
+                seen += buckets.get(i);
+                if (seen >= threshold) {
+                    return Math.min(TimeUnit.MICROSECONDS.toNanos(1L << (i + 1)), getMax());
+                }
+            }
+
+            return getMax();
+        }
+    }
+
+    private static class OutstandingCommand {
+
+        final String key;
+        final long sentAt;
+
+        OutstandingCommand(String key, long sentAt) {
+            this.key = key;
+            this.sentAt = sentAt;
+        }
+    }
+}
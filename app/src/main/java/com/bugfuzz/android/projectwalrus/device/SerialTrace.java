@@ -0,0 +1,201 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bugfuzz.android.projectwalrus.device;
+
+import android.support.annotation.Nullable;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class SerialTrace {
+
+    public static final int DIRECTION_IN = 0;
+    public static final int DIRECTION_OUT = 1;
+
+    private static final int MAGIC = 0x57535452;
+    private static final int VERSION = 1;
+
+    public static class Writer {
+
+        private static final int MAX_LENGTH = 16 * 1024 * 1024;
+
+        private final DataOutputStream outputStream;
+        private long lastTimestamp;
+
+        public Writer(File file, String deviceClassName, long writtenBeforeCapture)
+                throws IOException {
+            outputStream = new DataOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(file)));
+
+            try {
+                outputStream.writeInt(MAGIC);
+                outputStream.writeByte(VERSION);
+                outputStream.writeUTF(deviceClassName);
+                outputStream.writeLong(System.currentTimeMillis());
+                outputStream.writeLong(writtenBeforeCapture);
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+
+            lastTimestamp = System.nanoTime();
+        }
+
+        public synchronized void record(int direction, byte[] bytes) throws IOException {
+            // Stop at a record boundary so that a capped trace can still be replayed
+            if (outputStream.size() + bytes.length > MAX_LENGTH) {
+                throw new IOException("Trace size limit reached");
+            }
+
+            long now = System.nanoTime();
+
+            outputStream.writeByte(direction);
+            writeVarLong(outputStream, now - lastTimestamp);
+            writeVarLong(outputStream, bytes.length);
+            outputStream.write(bytes);
+
+            lastTimestamp = now;
+        }
+
+        public synchronized void close() {
+            // CHECKSTYLE:OFF EmptyCatchBlock
+            try {
+                outputStream.close();
+            } catch (IOException ignored) {
+            }
+            // CHECKSTYLE:ON EmptyCatchBlock
+        }
+    }
+
+    public static class Reader {
+
+        private final DataInputStream inputStream;
+        private final String deviceClassName;
+        private final long startTime;
+        private final long writtenBeforeCapture;
+        private long timestamp;
+
+        public Reader(File file) throws IOException {
+            inputStream = new DataInputStream(new BufferedInputStream(
+                    new FileInputStream(file)));
+
+            try {
+                if (inputStream.readInt() != MAGIC) {
+                    throw new IOException("Not a serial trace");
+                }
+
+                if (inputStream.readUnsignedByte() != VERSION) {
+                    throw new IOException("Unsupported serial trace version");
+                }
+
+                deviceClassName = inputStream.readUTF();
+                startTime = inputStream.readLong();
+                writtenBeforeCapture = inputStream.readLong();
+            } catch (IOException e) {
+                close();
+                throw e;
+            }
+        }
+
+        public String getDeviceClassName() {
+            return deviceClassName;
+        }
+
+        public long getStartTime() {
+            return startTime;
+        }
+
+        public long getWrittenBeforeCapture() {
+            return writtenBeforeCapture;
+        }
+
+        @Nullable
+        public Record read() throws IOException {
+            int direction = inputStream.read();
+            if (direction == -1) {
+                return null;
+            }
+
+            timestamp += readVarLong(inputStream);
+
+            long length = readVarLong(inputStream);
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("Invalid serial trace record length");
+            }
+
+            byte[] bytes = new byte[(int) length];
+            inputStream.readFully(bytes);
+
+            return new Record(direction, timestamp, bytes);
+        }
+
+        public void close() {
+            // CHECKSTYLE:OFF EmptyCatchBlock
+            try {
+                inputStream.close();
+            } catch (IOException ignored) {
+            }
+            // CHECKSTYLE:ON EmptyCatchBlock
+        }
+    }
+
+    public static class Record {
+
+        public final int direction;
+        public final long timestamp;
+        public final byte[] bytes;
+
+        Record(int direction, long timestamp, byte[] bytes) {
+            this.direction = direction;
+            this.timestamp = timestamp;
+            this.bytes = bytes;
+        }
+    }
+
+    private static void writeVarLong(DataOutputStream outputStream, long value)
+            throws IOException {
+        while ((value & ~0x7fL) != 0) {
+            outputStream.writeByte((int) (value & 0x7f) | 0x80);
+            value >>>= 7;
+        }
+
+        outputStream.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream inputStream) throws IOException {
+        long value = 0;
+
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = inputStream.readUnsignedByte();
+            value |= (long) (b & 0x7f) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+
+        throw new IOException("Malformed serial trace");
+    }
+}
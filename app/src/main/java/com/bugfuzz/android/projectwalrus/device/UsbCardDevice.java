@@ -23,6 +23,8 @@ import android.content.Context;
 import android.hardware.usb.UsbDevice;
 import android.hardware.usb.UsbDeviceConnection;
 import android.hardware.usb.UsbManager;
+import android.os.Build;
+import android.support.annotation.Nullable;
 
 import com.bugfuzz.android.projectwalrus.R;
 
@@ -31,36 +33,169 @@ import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
+import java.util.concurrent.TimeUnit;
 
 public abstract class UsbCardDevice extends CardDevice {
 
-    private final UsbDevice usbDevice;
+    public static final long RECONNECT_GRACE_PERIOD = 10 * 1000;
+
+    private volatile UsbDevice usbDevice;
     UsbDeviceConnection usbDeviceConnection;
 
-    UsbCardDevice(Context context, UsbDevice usbDevice, String status) throws IOException {
+    private boolean detached;
+    private boolean closed;
+    private volatile int detachCount;
+
+    // Devices driven over another transport (e.g. a replayed trace) have no USB device
+    UsbCardDevice(Context context, @Nullable UsbDevice usbDevice, String status)
+            throws IOException {
         super(context, status);
 
         this.usbDevice = usbDevice;
 
+        if (usbDevice != null) {
+            usbDeviceConnection = openConnection(context, usbDevice);
+        }
+    }
+
+    private static UsbDeviceConnection openConnection(Context context, UsbDevice usbDevice)
+            throws IOException {
         UsbManager usbManager = (UsbManager) context.getSystemService(Context.USB_SERVICE);
         if (usbManager == null) {
             throw new IOException(context.getString(R.string.failed_open_usb_connection));
         }
 
-        usbDeviceConnection = usbManager.openDevice(usbDevice);
+        UsbDeviceConnection usbDeviceConnection = usbManager.openDevice(usbDevice);
         if (usbDeviceConnection == null) {
             throw new IOException(context.getString(R.string.failed_open_usb_connection));
         }
+
+        return usbDeviceConnection;
     }
 
+    public void start() throws IOException {
+    }
+
+    @Nullable
     public UsbDevice getUsbDevice() {
         return usbDevice;
     }
 
+    public boolean isSameUsbDevice(UsbDevice otherUsbDevice) {
+        UsbDevice usbDevice = this.usbDevice;
+        if (usbDevice == null) {
+            return false;
+        }
+
+        if (usbDevice.getVendorId() != otherUsbDevice.getVendorId()
+                || usbDevice.getProductId() != otherUsbDevice.getProductId()) {
+            return false;
+        }
+
+        // Without a serial number, fall back to requiring the same bus path
+        String serialNumber = getSerialNumber(usbDevice);
+        if (serialNumber == null) {
+            return getSerialNumber(otherUsbDevice) == null
+                    && usbDevice.getDeviceName().equals(otherUsbDevice.getDeviceName());
+        }
+
+        return serialNumber.equals(getSerialNumber(otherUsbDevice));
+    }
+
+    @Nullable
+    private static String getSerialNumber(UsbDevice usbDevice) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            return null;
+        }
+
+        try {
+            return usbDevice.getSerialNumber();
+        } catch (SecurityException e) {
+            return null;
+        }
+    }
+
+    synchronized void detach() {
+        if (detached || closed) {
+            return;
+        }
+
+        closeConnection();
+
+        if (usbDeviceConnection != null) {
+            usbDeviceConnection.close();
+            usbDeviceConnection = null;
+        }
+
+        detached = true;
+        ++detachCount;
+    }
+
+    synchronized void rebind(UsbDevice usbDevice) throws IOException {
+        if (!detached || closed) {
+            return;
+        }
+
+        usbDeviceConnection = openConnection(context, usbDevice);
+        this.usbDevice = usbDevice;
+
+        try {
+            reopenConnection();
+        } catch (IOException e) {
+            usbDeviceConnection.close();
+            usbDeviceConnection = null;
+            throw e;
+        }
+
+        detached = false;
+        notifyAll();
+    }
+
+    public synchronized boolean isDetached() {
+        return detached;
+    }
+
+    public int getDetachCount() {
+        return detachCount;
+    }
+
+    public synchronized boolean awaitReattach(long timeout) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+
+        while (detached && !closed) {
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                break;
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+
+        return !detached && !closed;
+    }
+
+    protected void closeConnection() {
+    }
+
+    protected void reopenConnection() throws IOException {
+    }
+
     @Override
     public void close() {
-        usbDeviceConnection.close();
-        usbDeviceConnection = null;
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+
+        if (usbDeviceConnection != null) {
+            usbDeviceConnection.close();
+            usbDeviceConnection = null;
+        }
 
         super.close();
     }
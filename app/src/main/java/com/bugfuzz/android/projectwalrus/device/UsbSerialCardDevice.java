@@ -21,74 +21,432 @@ package com.bugfuzz.android.projectwalrus.device;
 
 import android.content.Context;
 import android.hardware.usb.UsbDevice;
-import android.util.Pair;
+import android.support.annotation.Nullable;
 
 import com.bugfuzz.android.projectwalrus.R;
+import com.bugfuzz.android.projectwalrus.util.ByteRingBuffer;
+import com.bugfuzz.android.projectwalrus.util.SpscRing;
 import com.felhr.usbserial.UsbSerialDevice;
-import com.felhr.usbserial.UsbSerialInterface;
-
-import org.apache.commons.lang3.ArrayUtils;
 
+import java.io.File;
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 public abstract class UsbSerialCardDevice<T> extends UsbCardDevice {
 
-    private final BlockingQueue<T> receiveQueue = new LinkedBlockingQueue<>();
-    private UsbSerialDevice usbSerialDevice;
+    private static final long BATCH_FLUSH_DELAY = 5;
+    private static final int DEFAULT_RECEIVE_QUEUE_CAPACITY = 1024;
+    private static final int RAW_CHUNK_QUEUE_CAPACITY = 1024;
+    private static final long IDLE_PARK_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final long IO_PARK_TIMEOUT = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "UsbSerialCardDevice scheduler");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final SerialDeviceStats stats = new SerialDeviceStats();
+    private final AtomicInteger receiveQueueHighWaterMark = new AtomicInteger();
+    private volatile SpscRing<T> receiveQueue =
+            new SpscRing<>(DEFAULT_RECEIVE_QUEUE_CAPACITY, true);
+    private volatile OverflowPolicy overflowPolicy = OverflowPolicy.DROP_OLDEST;
+    private volatile Thread receiveWaiter;
+    private final SpscRing<byte[]> rawChunkQueue = new SpscRing<>(RAW_CHUNK_QUEUE_CAPACITY, false);
+    private volatile WaitStrategy waitStrategy = WaitStrategy.PARK;
+    private volatile boolean ioRunning;
+    private Thread ioThread;
+    private volatile boolean discardBuffered;
+
+    private final SerialTransport.ReadCallback readCallback = new SerialTransport.ReadCallback() {
+        @Override
+        public void onReceived(byte[] in) {
+            while (!rawChunkQueue.offer(in)) {
+                if (!ioRunning) {
+                    return;
+                }
+
+                idle(waitStrategy, IDLE_PARK_TIMEOUT);
+            }
+
+            if (waitStrategy == WaitStrategy.PARK) {
+                LockSupport.unpark(ioThread);
+            }
+        }
+    };
+    private final Queue<PendingReceive<T, ?>> pendingReceives = new ConcurrentLinkedQueue<>();
+    private final List<OnFrameReceivedCallback<T>> frameCallbacks = new CopyOnWriteArrayList<>();
+    private final ByteRingBuffer buffer = new ByteRingBuffer(4096);
+    private SerialTransport serialTransport;
     private volatile boolean receiving;
-    private byte[] buffer = new byte[0];
+    private volatile SerialTrace.Writer traceWriter;
+
+    private final Object macroLock = new Object();
+    private volatile List<T> macroCommands;
+    private List<String> macroCommandKeys;
+    private List<T> macroResponses;
+
+    private final Object batchLock = new Object();
+    private final AtomicLong coalescedWriteCount = new AtomicLong();
+    private byte[] batch = new byte[1024];
+    private int batchLength;
+    private int batchCommandCount;
+    private long writtenLength;
+    private ScheduledFuture<?> batchFlush;
+
+    private SerialTransport initialSerialTransport;
 
     protected UsbSerialCardDevice(Context context, UsbDevice usbDevice, String status)
             throws IOException {
+        this(context, usbDevice, null, status);
+    }
+
+    protected UsbSerialCardDevice(Context context, SerialTransport serialTransport, String status)
+            throws IOException {
+        this(context, null, serialTransport, status);
+    }
+
+    // Takes either a USB device or the transport to use in its place
+    protected UsbSerialCardDevice(Context context, @Nullable UsbDevice usbDevice,
+            @Nullable SerialTransport serialTransport, String status) throws IOException {
         super(context, usbDevice, status);
 
-        usbSerialDevice = UsbSerialDevice.createUsbSerialDevice(usbDevice, usbDeviceConnection);
-        if (!usbSerialDevice.open()) {
-            throw new IOException(context.getString(R.string.failed_open_usb_serial_device));
+        initialSerialTransport = serialTransport != null ? serialTransport
+                : createUsbSerialTransport(usbDevice);
+    }
+
+    private SerialTransport createUsbSerialTransport(UsbDevice usbDevice) {
+        return new UsbSerialTransport(context, usbDevice, usbDeviceConnection) {
+            @Override
+            protected void setupSerialParams(UsbSerialDevice usbSerialDevice) {
+                UsbSerialCardDevice.this.setupSerialParams(usbSerialDevice);
+            }
+        };
+    }
+
+    // The I/O thread calls back into subclasses, so it mustn't start until they have been fully
+    // constructed
+    @Override
+    public void start() throws IOException {
+        if (initialSerialTransport == null) {
+            throw new IllegalStateException("Already started");
         }
 
-        setupSerialParams(usbSerialDevice);
+        SerialTransport serialTransport = initialSerialTransport;
+        initialSerialTransport = null;
 
-        usbSerialDevice.read(new UsbSerialInterface.UsbReadCallback() {
-            @Override
-            public void onReceivedData(byte[] in) {
-                buffer = ArrayUtils.addAll(buffer, in);
+        openSerialTransport(serialTransport);
+    }
+
+    private void openSerialTransport(SerialTransport serialTransport) throws IOException {
+        synchronized (batchLock) {
+            this.serialTransport = serialTransport;
+        }
 
-                for (; ; ) {
-                    Pair<T, Integer> sliced = sliceIncoming(buffer);
-                    if (sliced == null) {
-                        break;
+        ioRunning = true;
+        ioThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (ioRunning) {
+                    byte[] in = rawChunkQueue.poll();
+                    if (in == null) {
+                        idle(waitStrategy, IO_PARK_TIMEOUT);
+                        continue;
                     }
 
-                    buffer = ArrayUtils.subarray(buffer, sliced.second, buffer.length);
+                    onReceived(in);
+                }
+            }
+        }, "UsbSerialCardDevice I/O");
+        ioThread.setDaemon(true);
+        ioThread.start();
+
+        try {
+            serialTransport.open(readCallback);
+        } catch (IOException e) {
+            stopIOThread();
+            throw e;
+        }
+    }
+
+    private void stopIOThread() {
+        ioRunning = false;
+        LockSupport.unpark(ioThread);
+    }
+
+    private void onReceived(byte[] in) {
+        recordTrace(SerialTrace.DIRECTION_IN, in);
+        stats.onBytesIn(in.length);
 
-                    if (receiving) {
-                        // CHECKSTYLE:OFF EmptyCatchBlock
-                        try {
-                            receiveQueue.put(sliced.first);
-                        } catch (InterruptedException ignored) {
-                        }
-                        // CHECKSTYLE:ON EmptyCatchBlock
+        if (discardBuffered) {
+            // Drop any partial frame left over from before a reconnect
+            discardBuffered = false;
+            buffer.clear();
+            onIncomingDiscarded();
+        }
+
+        buffer.write(in);
+
+        for (; ; ) {
+            T sliced = sliceIncoming(buffer);
+            if (sliced == null) {
+                break;
+            }
+
+            boolean response = isResponseFrame(sliced);
+            stats.onFrameIn(response, response ? getResponseKey(sliced) : null);
+            if (response && macroCommands != null) {
+                recordMacroResponse(sliced);
+            }
+
+            for (OnFrameReceivedCallback<T> frameCallback : frameCallbacks) {
+                frameCallback.onFrameReceived(sliced);
+            }
+
+            if (offerToPendingReceives(sliced, response)) {
+                continue;
+            }
+
+            if (receiving) {
+                enqueueReceived(sliced);
+            } else {
+                recycleIncoming(sliced);
+            }
+        }
+    }
+
+    private void enqueueReceived(T in) {
+        SpscRing<T> receiveQueue = this.receiveQueue;
+
+        // DROP_OLDEST queues overwrite their oldest frame, and the consumer accounts for it
+        if (!receiveQueue.offer(in)) {
+            if (overflowPolicy == OverflowPolicy.BLOCK) {
+                while (!receiveQueue.offer(in)) {
+                    if (!receiving || !ioRunning) {
+                        stats.onFramesDropped(1);
+                        recycleIncoming(in);
+                        return;
                     }
+
+                    idle(waitStrategy, IDLE_PARK_TIMEOUT);
                 }
+            } else {
+                stats.onFramesDropped(1);
+                recycleIncoming(in);
+                return;
             }
-        });
+        }
+
+        T overwritten = receiveQueue.takeOverwritten();
+        if (overwritten != null) {
+            recycleIncoming(overwritten);
+        }
+
+        Thread receiveWaiter = this.receiveWaiter;
+        if (receiveWaiter != null) {
+            LockSupport.unpark(receiveWaiter);
+        }
+
+        int size = receiveQueue.size();
+        if (size > receiveQueueHighWaterMark.get()) {
+            receiveQueueHighWaterMark.set(size);
+        }
+    }
+
+    private static void idle(WaitStrategy waitStrategy, long parkTimeout) {
+        switch (waitStrategy) {
+            case BUSY_SPIN:
+                break;
+
+            case YIELD:
+                Thread.yield();
+                break;
+
+            case PARK:
+                LockSupport.parkNanos(parkTimeout);
+                break;
+        }
+    }
+
+    private boolean offerToPendingReceives(T in, boolean response) {
+        long now = System.nanoTime();
+        String responseKey = getResponseKey(in);
+
+        Iterator<PendingReceive<T, ?>> it = pendingReceives.iterator();
+        while (it.hasNext()) {
+            PendingReceive<T, ?> pendingReceive = it.next();
+
+            if (pendingReceive.hasExpired(now)) {
+                it.remove();
+                continue;
+            }
+
+            if (responseKey != null && pendingReceive.commandKey != null
+                    && !responseKey.equals(pendingReceive.commandKey)) {
+                continue;
+            }
+
+            if (pendingReceive.isAbandoned(now)) {
+                // A late response to an abandoned command mustn't be taken as the response to
+                // whatever was sent after it, so swallow it
+                if (response) {
+                    it.remove();
+                    recycleIncoming(in);
+                    return true;
+                }
+
+                continue;
+            }
+
+            if (pendingReceive.offer(in)) {
+                it.remove();
+                // As in receive(), the frame is only kept if it is itself the result
+                if (pendingReceive.result != in) {
+                    recycleIncoming(in);
+                }
+                return true;
+            }
+        }
+
+        return false;
     }
 
     protected void setupSerialParams(UsbSerialDevice usbSerialDevice) {
     }
 
+    @Override
+    protected void closeConnection() {
+        synchronized (batchLock) {
+            if (serialTransport != null) {
+                serialTransport.close();
+                serialTransport = null;
+            }
+        }
+    }
+
+    @Override
+    protected void reopenConnection() throws IOException {
+        SerialTransport serialTransport = createUsbSerialTransport(getUsbDevice());
+
+        discardBuffered = true;
+        serialTransport.open(readCallback);
+
+        synchronized (batchLock) {
+            this.serialTransport = serialTransport;
+        }
+    }
+
     @Override
     public void close() {
-        usbSerialDevice.close();
-        usbSerialDevice = null;
+        synchronized (batchLock) {
+            if (batchFlush != null) {
+                batchFlush.cancel(false);
+                batchFlush = null;
+            }
+
+            batchLength = 0;
+            batchCommandCount = 0;
+        }
+
+        closeConnection();
+
+        stopIOThread();
+
+        stopCapture();
 
         super.close();
     }
 
+    // Debug builds only, see CardDeviceManager
+    public void startCapture(File trace) throws IOException {
+        synchronized (batchLock) {
+            flushBatch();
+
+            SerialTrace.Writer traceWriter = new SerialTrace.Writer(trace, getClass().getName(),
+                    writtenLength);
+
+            stopCapture();
+            this.traceWriter = traceWriter;
+        }
+    }
+
+    public void stopCapture() {
+        SerialTrace.Writer traceWriter = this.traceWriter;
+        if (traceWriter != null) {
+            this.traceWriter = null;
+            traceWriter.close();
+        }
+    }
+
+    private void recordTrace(int direction, byte[] bytes) {
+        SerialTrace.Writer traceWriter = this.traceWriter;
+        if (traceWriter == null) {
+            return;
+        }
+
+        try {
+            traceWriter.record(direction, bytes);
+        } catch (IOException e) {
+            stopCapture();
+        }
+    }
+
+    private void writeToTransport(byte[] bytes) {
+        if (serialTransport == null) {
+            return;
+        }
+
+        recordTrace(SerialTrace.DIRECTION_OUT, bytes);
+
+        serialTransport.write(bytes);
+        writtenLength += bytes.length;
+        stats.onBytesOut(bytes.length);
+    }
+
+    public void addOnFrameReceivedCallback(OnFrameReceivedCallback<T> frameCallback) {
+        frameCallbacks.add(frameCallback);
+    }
+
+    public void removeOnFrameReceivedCallback(OnFrameReceivedCallback<T> frameCallback) {
+        frameCallbacks.remove(frameCallback);
+    }
+
+    public void setReceiveQueueLimits(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity");
+        }
+
+        receiveQueue = new SpscRing<>(capacity, overflowPolicy == OverflowPolicy.DROP_OLDEST);
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public void setWaitStrategy(WaitStrategy waitStrategy) {
+        this.waitStrategy = waitStrategy;
+    }
+
+    public int getReceiveQueueHighWaterMark() {
+        return receiveQueueHighWaterMark.get();
+    }
+
     protected void setReceiving(boolean receiving) {
         if (receiving) {
             receiveQueue.clear();
@@ -97,32 +455,105 @@ public abstract class UsbSerialCardDevice<T> extends UsbCardDevice {
         this.receiving = receiving;
     }
 
-    protected abstract Pair<T, Integer> sliceIncoming(byte[] in);
+    // Returns the next complete frame and skips its bytes, or returns null if there isn't one yet
+    @Nullable
+    protected abstract T sliceIncoming(ByteRingBuffer in);
+
+    // Called on the I/O thread when a reconnect drops any partially received frame
+    protected void onIncomingDiscarded() {
+    }
 
     protected abstract byte[] formatOutgoing(T out);
 
+    @Nullable
+    protected String getCommandKey(T out) {
+        return null;
+    }
+
+    // Returns false for commands that the device never responds to, so that their latency isn't
+    // measured against the response to a later command
+    protected boolean expectsResponse(T out) {
+        return true;
+    }
+
+    // Returns the key of the command that a response answers, if the response says so, so that
+    // it can only complete a receive waiting on that command
+    @Nullable
+    protected String getResponseKey(T in) {
+        return null;
+    }
+
+    protected boolean isResponseFrame(T in) {
+        return false;
+    }
+
+    protected void recycleIncoming(T in) {
+    }
+
+    // Devices that recycle incoming frames must return a copy that recycling won't touch
+    protected T copyIncoming(T in) {
+        return in;
+    }
+
+    public SerialDeviceStats getStats() {
+        return stats;
+    }
+
     private T receive(long timeout) {
         if (!receiving) {
             throw new RuntimeException("Not receiving");
         }
 
-        try {
-            return receiveQueue.poll(timeout, TimeUnit.MILLISECONDS);
-        } catch (InterruptedException e) {
-            return null;
+        SpscRing<T> receiveQueue = this.receiveQueue;
+        long deadline = System.nanoTime() + timeout;
+
+        for (; ; ) {
+            T in = receiveQueue.poll();
+
+            long overrunCount = receiveQueue.takeOverrunCount();
+            if (overrunCount != 0) {
+                stats.onFramesDropped(overrunCount);
+            }
+
+            if (in != null) {
+                if (overflowPolicy == OverflowPolicy.BLOCK && waitStrategy == WaitStrategy.PARK) {
+                    LockSupport.unpark(ioThread);
+                }
+
+                return in;
+            }
+
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0 || Thread.interrupted()) {
+                return null;
+            }
+
+            receiveWaiter = Thread.currentThread();
+            if (receiveQueue.size() == 0) {
+                idle(waitStrategy, remaining);
+            }
+            receiveWaiter = null;
         }
     }
 
     private <O> O receive(ReceiveSink<T, O> receiveSink,
             @SuppressWarnings("SameParameterValue") long internalTimeout)
             throws IOException {
+        long pollTimeout = TimeUnit.MILLISECONDS.toNanos(internalTimeout);
+
         while (receiveSink.wantsMore()) {
-            T in = receive(internalTimeout);
+            // Wake up as soon as the sink's deadline passes rather than on the next poll tick
+            long timeUntilDeadline = receiveSink.getTimeUntilDeadline();
+            T in = receive(timeUntilDeadline > 0 ? Math.min(pollTimeout, timeUntilDeadline)
+                    : pollTimeout);
             if (in == null) {
                 continue;
             }
 
             O result = receiveSink.onReceived(in);
+            if (result != in) {
+                recycleIncoming(in);
+            }
             if (result != null) {
                 return result;
             }
@@ -136,12 +567,328 @@ public abstract class UsbSerialCardDevice<T> extends UsbCardDevice {
     }
 
     protected void send(T out) {
+        byte[] bytes = formatOutgoingOrThrow(out);
+
+        synchronized (batchLock) {
+            flushBatch();
+
+            writeToTransport(bytes);
+        }
+    }
+
+    protected void sendBatched(T out) {
+        byte[] bytes = formatOutgoingOrThrow(out);
+
+        synchronized (batchLock) {
+            if (batchLength + bytes.length > batch.length) {
+                batch = Arrays.copyOf(batch, Math.max(batch.length * 2,
+                        batchLength + bytes.length));
+            }
+
+            System.arraycopy(bytes, 0, batch, batchLength, bytes.length);
+            batchLength += bytes.length;
+            ++batchCommandCount;
+
+            if (batchFlush == null) {
+                batchFlush = scheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        flushBatch();
+                    }
+                }, BATCH_FLUSH_DELAY, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    protected void flushBatch() {
+        synchronized (batchLock) {
+            if (batchFlush != null) {
+                batchFlush.cancel(false);
+                batchFlush = null;
+            }
+
+            if (batchLength == 0 || serialTransport == null) {
+                return;
+            }
+
+            writeToTransport(Arrays.copyOf(batch, batchLength));
+            coalescedWriteCount.addAndGet(batchCommandCount - 1);
+
+            batchLength = 0;
+            batchCommandCount = 0;
+        }
+    }
+
+    public long getCoalescedWriteCount() {
+        return coalescedWriteCount.get();
+    }
+
+    private byte[] formatOutgoingOrThrow(T out) {
         byte[] bytes = formatOutgoing(out);
         if (bytes == null) {
             throw new RuntimeException("Failed to format outgoing");
         }
 
-        usbSerialDevice.write(bytes);
+        String commandKey = getCommandKey(out);
+        stats.onFrameOut(commandKey, expectsResponse(out));
+        if (macroCommands != null) {
+            recordMacroCommand(out, commandKey);
+        }
+
+        return bytes;
+    }
+
+    public void startMacroRecording() {
+        synchronized (macroLock) {
+            macroCommandKeys = new ArrayList<>();
+            macroResponses = new ArrayList<>();
+            macroCommands = new ArrayList<>();
+        }
+    }
+
+    public CommandMacro<T> stopMacroRecording() {
+        synchronized (macroLock) {
+            if (macroCommands == null) {
+                throw new IllegalStateException("Not recording a macro");
+            }
+
+            CommandMacro<T> macro = new CommandMacro<>();
+            for (int i = 0; i < macroCommands.size(); ++i) {
+                T response = macroResponses.get(i);
+                macro.addStep(macroCommands.get(i),
+                        response != null ? createResponseMatcher(response) : null);
+            }
+
+            macroCommands = null;
+            macroCommandKeys = null;
+            macroResponses = null;
+
+            return macro;
+        }
+    }
+
+    private void recordMacroCommand(T out, @Nullable String commandKey) {
+        synchronized (macroLock) {
+            if (macroCommands != null) {
+                macroCommands.add(out);
+                macroCommandKeys.add(commandKey);
+                macroResponses.add(null);
+            }
+        }
+    }
+
+    // A response goes to the first unanswered command with its key, or if it doesn't have one,
+    // to the first unanswered command
+    private void recordMacroResponse(T in) {
+        synchronized (macroLock) {
+            if (macroCommands == null) {
+                return;
+            }
+
+            String responseKey = getResponseKey(in);
+            for (int i = 0; i < macroResponses.size(); ++i) {
+                if (macroResponses.get(i) == null
+                        && (responseKey == null || responseKey.equals(macroCommandKeys.get(i)))) {
+                    macroResponses.set(i, copyIncoming(in));
+                    return;
+                }
+            }
+        }
+    }
+
+    protected CommandMacro.ResponseMatcher<T> createResponseMatcher(final T recordedResponse) {
+        return new CommandMacro.ResponseMatcher<T>() {
+            @Override
+            public boolean matches(T response) {
+                return response.equals(recordedResponse);
+            }
+        };
+    }
+
+    public List<T> runMacro(CommandMacro<T> macro, long timeout) throws IOException {
+        ReceiveSink<T, T> responseSink = new ReceiveSink<T, T>() {
+            @Override
+            public T onReceived(T in) {
+                return isResponseFrame(in) ? in : null;
+            }
+        };
+
+        List<CommandMacro.Step<T>> steps = macro.getSteps();
+        List<PendingReceive<T, T>> inFlight = new ArrayList<>(steps.size());
+        List<T> responses = new ArrayList<>(steps.size());
+
+        try {
+            for (CommandMacro.Step<T> step : steps) {
+                if (step.getResponseMatcher() != null) {
+                    inFlight.add(sendBatchedForResult(step.getCommand(), responseSink, timeout));
+                } else {
+                    sendBatched(step.getCommand());
+                    inFlight.add(null);
+                }
+            }
+            flushBatch();
+
+            for (PendingReceive<T, T> pendingReceive : inFlight) {
+                responses.add(pendingReceive != null ? pendingReceive.await() : null);
+            }
+        } finally {
+            for (PendingReceive<T, T> pendingReceive : inFlight) {
+                if (pendingReceive != null) {
+                    pendingReceive.cancel();
+                }
+            }
+        }
+
+        for (int i = 0; i < steps.size(); ++i) {
+            CommandMacro.ResponseMatcher<T> responseMatcher = steps.get(i).getResponseMatcher();
+            if (responseMatcher == null) {
+                continue;
+            }
+
+            T response = responses.get(i);
+            if (response == null) {
+                throw new IOException(context.getString(R.string.macro_step_timeout, i + 1));
+            }
+            if (!responseMatcher.matches(response)) {
+                throw new IOException(context.getString(R.string.macro_step_unexpected_response,
+                        i + 1, response));
+            }
+        }
+
+        return responses;
+    }
+
+    // Frames may be recycled as soon as the callback returns, so callbacks must copy anything
+    // they want to keep rather than holding on to the frame
+    public interface OnFrameReceivedCallback<T> {
+        void onFrameReceived(T frame);
+    }
+
+    public enum OverflowPolicy {
+        DROP_OLDEST,
+        DROP_NEWEST,
+        BLOCK
+    }
+
+    public enum WaitStrategy {
+        BUSY_SPIN,
+        YIELD,
+        PARK
+    }
+
+    protected <O> PendingReceive<T, O> sendForResult(T out, ReceiveSink<T, O> receiveSink,
+            long timeout) {
+        PendingReceive<T, O> pendingReceive = new PendingReceive<>(getCommandKey(out),
+                receiveSink, timeout);
+        pendingReceives.add(pendingReceive);
+
+        send(out);
+
+        return pendingReceive;
+    }
+
+    protected <O> PendingReceive<T, O> sendBatchedForResult(T out,
+            ReceiveSink<T, O> receiveSink, long timeout) {
+        PendingReceive<T, O> pendingReceive = new PendingReceive<>(getCommandKey(out),
+                receiveSink, timeout);
+        pendingReceives.add(pendingReceive);
+
+        sendBatched(out);
+
+        return pendingReceive;
+    }
+
+    protected static class PendingReceive<T, O> {
+
+        @Nullable
+        private final String commandKey;
+        private final ReceiveSink<T, O> receiveSink;
+        private final long timeout;
+        private final long sentAt;
+
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile boolean cancelled;
+        private volatile O result;
+        private volatile IOException exception;
+        private volatile long completedAt;
+
+        PendingReceive(@Nullable String commandKey, ReceiveSink<T, O> receiveSink, long timeout) {
+            this.commandKey = commandKey;
+            this.receiveSink = receiveSink;
+            this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
+
+            sentAt = System.nanoTime();
+        }
+
+        private boolean offer(T in) {
+            O result;
+            try {
+                result = receiveSink.onReceived(in);
+            } catch (IOException exception) {
+                if (!cancelled) {
+                    this.exception = exception;
+                }
+                complete();
+                return true;
+            }
+
+            if (result == null) {
+                return false;
+            }
+
+            if (!cancelled) {
+                completedAt = System.nanoTime();
+                this.result = result;
+            }
+            complete();
+            return true;
+        }
+
+        private void complete() {
+            latch.countDown();
+        }
+
+        private boolean isAbandoned(long now) {
+            return cancelled || now - (sentAt + timeout) > 0;
+        }
+
+        // Abandoned receives stay registered for another timeout period to swallow a late
+        // response, but not forever, as the command may never be answered at all
+        private boolean hasExpired(long now) {
+            return now - (sentAt + 2 * timeout) > 0;
+        }
+
+        public O await() throws IOException {
+            long remaining = sentAt + timeout - System.nanoTime();
+
+            try {
+                if (remaining <= 0 || !latch.await(remaining, TimeUnit.NANOSECONDS)) {
+                    cancel();
+                }
+            } catch (InterruptedException e) {
+                cancel();
+                Thread.currentThread().interrupt();
+            }
+
+            if (exception != null) {
+                throw exception;
+            }
+
+            return result;
+        }
+
+        public void cancel() {
+            cancelled = true;
+            complete();
+        }
+
+        public boolean isDone() {
+            return latch.getCount() == 0;
+        }
+
+        public long getRoundTripTime() {
+            return completedAt != 0 ? completedAt - sentAt : -1;
+        }
     }
 
     protected abstract static class ReceiveSink<T, O> {
@@ -150,6 +897,10 @@ public abstract class UsbSerialCardDevice<T> extends UsbCardDevice {
         public boolean wantsMore() {
             return true;
         }
+
+        public long getTimeUntilDeadline() {
+            return Long.MAX_VALUE;
+        }
     }
 
     protected abstract static class WatchdogReceiveSink<T, O> extends ReceiveSink<T, O> {
@@ -158,17 +909,23 @@ public abstract class UsbSerialCardDevice<T> extends UsbCardDevice {
         private long lastWatchdogReset;
 
         public WatchdogReceiveSink(long timeout) {
-            this.timeout = timeout;
+            this.timeout = TimeUnit.MILLISECONDS.toNanos(timeout);
 
             resetWatchdog();
         }
 
         protected void resetWatchdog() {
-            lastWatchdogReset = System.currentTimeMillis();
+            lastWatchdogReset = System.nanoTime();
         }
 
+        @Override
         public boolean wantsMore() {
-            return System.currentTimeMillis() < lastWatchdogReset + timeout;
+            return getTimeUntilDeadline() > 0;
+        }
+
+        @Override
+        public long getTimeUntilDeadline() {
+            return lastWatchdogReset + timeout - System.nanoTime();
         }
     }
 }
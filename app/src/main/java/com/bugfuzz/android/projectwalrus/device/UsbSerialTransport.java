@@ -0,0 +1,80 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bugfuzz.android.projectwalrus.device;
+
+import android.content.Context;
+import android.hardware.usb.UsbDevice;
+import android.hardware.usb.UsbDeviceConnection;
+
+import com.bugfuzz.android.projectwalrus.R;
+import com.felhr.usbserial.UsbSerialDevice;
+import com.felhr.usbserial.UsbSerialInterface;
+
+import java.io.IOException;
+
+public class UsbSerialTransport implements SerialTransport {
+
+    private final Context context;
+    private final UsbDevice usbDevice;
+    private final UsbDeviceConnection usbDeviceConnection;
+
+    private UsbSerialDevice usbSerialDevice;
+
+    public UsbSerialTransport(Context context, UsbDevice usbDevice,
+            UsbDeviceConnection usbDeviceConnection) {
+        this.context = context;
+        this.usbDevice = usbDevice;
+        this.usbDeviceConnection = usbDeviceConnection;
+    }
+
+    @Override
+    public void open(final ReadCallback readCallback) throws IOException {
+        usbSerialDevice = UsbSerialDevice.createUsbSerialDevice(usbDevice, usbDeviceConnection);
+        if (usbSerialDevice == null || !usbSerialDevice.open()) {
+            usbSerialDevice = null;
+            throw new IOException(context.getString(R.string.failed_open_usb_serial_device));
+        }
+
+        setupSerialParams(usbSerialDevice);
+
+        usbSerialDevice.read(new UsbSerialInterface.UsbReadCallback() {
+            @Override
+            public void onReceivedData(byte[] in) {
+                readCallback.onReceived(in);
+            }
+        });
+    }
+
+    protected void setupSerialParams(UsbSerialDevice usbSerialDevice) {
+    }
+
+    @Override
+    public void write(byte[] bytes) {
+        usbSerialDevice.write(bytes);
+    }
+
+    @Override
+    public void close() {
+        if (usbSerialDevice != null) {
+            usbSerialDevice.close();
+            usbSerialDevice = null;
+        }
+    }
+}
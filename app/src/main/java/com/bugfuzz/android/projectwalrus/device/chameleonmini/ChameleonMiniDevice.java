@@ -31,8 +31,10 @@ import com.bugfuzz.android.projectwalrus.R;
 import com.bugfuzz.android.projectwalrus.card.carddata.CardData;
 import com.bugfuzz.android.projectwalrus.card.carddata.MifareCardData;
 import com.bugfuzz.android.projectwalrus.device.CardDevice;
+import com.bugfuzz.android.projectwalrus.device.CommandMacro;
 import com.bugfuzz.android.projectwalrus.device.LineBasedUsbSerialCardDevice;
 import com.bugfuzz.android.projectwalrus.device.ReadCardDataOperation;
+import com.bugfuzz.android.projectwalrus.device.SerialTransport;
 import com.bugfuzz.android.projectwalrus.device.UsbCardDevice;
 import com.bugfuzz.android.projectwalrus.device.WriteOrEmulateCardDataOperation;
 import com.bugfuzz.android.projectwalrus.device.chameleonmini.ui.ChameleonMiniActivity;
@@ -41,6 +43,7 @@ import com.felhr.usbserial.UsbSerialInterface;
 
 import java.io.IOException;
 import java.math.BigInteger;
+import java.util.List;
 import java.util.concurrent.Semaphore;
 
 @CardDevice.Metadata(
@@ -60,6 +63,11 @@ public class ChameleonMiniDevice extends LineBasedUsbSerialCardDevice
         super(context, usbDevice, "\r\n", "ISO-8859-1", context.getString(R.string.idle));
     }
 
+    public ChameleonMiniDevice(Context context, SerialTransport serialTransport)
+            throws IOException {
+        super(context, serialTransport, "\r\n", "ISO-8859-1", context.getString(R.string.idle));
+    }
+
     @Override
     protected void setupSerialParams(UsbSerialDevice usbSerialDevice) {
         usbSerialDevice.setBaudRate(115200);
@@ -71,6 +79,50 @@ public class ChameleonMiniDevice extends LineBasedUsbSerialCardDevice
         usbSerialDevice.setFlowControl(UsbSerialInterface.FLOW_CONTROL_OFF);
     }
 
+    @Override
+    protected String getCommandKey(String out) {
+        for (int i = 0; i < out.length(); ++i) {
+            char c = out.charAt(i);
+            if (c == '=' || c == '?') {
+                return out.substring(0, i);
+            }
+        }
+
+        return out;
+    }
+
+    @Override
+    protected boolean isResponseFrame(String in) {
+        return in.length() >= 4 && Character.isDigit(in.charAt(0))
+                && Character.isDigit(in.charAt(1)) && Character.isDigit(in.charAt(2))
+                && in.charAt(3) == ':';
+    }
+
+    @Override
+    protected CommandMacro.ResponseMatcher<String> createResponseMatcher(
+            final String recordedResponse) {
+        // Responses are matched on their status code alone
+        return new CommandMacro.ResponseMatcher<String>() {
+            @Override
+            public boolean matches(String response) {
+                return response.regionMatches(0, recordedResponse, 0, 3);
+            }
+        };
+    }
+
+    @Override
+    public List<String> runMacro(CommandMacro<String> macro, long timeout) throws IOException {
+        if (!tryAcquireAndSetStatus(context.getString(R.string.running_macro))) {
+            throw new IOException(context.getString(R.string.device_busy));
+        }
+
+        try {
+            return super.runMacro(macro, timeout);
+        } finally {
+            releaseAndSetStatus();
+        }
+    }
+
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     private boolean tryAcquireAndSetStatus(String status) {
         if (!semaphore.tryAcquire()) {
@@ -179,6 +231,8 @@ public class ChameleonMiniDevice extends LineBasedUsbSerialCardDevice
                 chameleonMiniDevice.setReceiving(true);
 
                 try {
+                    // The later commands depend on the configuration, so only batch them
+                    // once it has been accepted
                     chameleonMiniDevice.send("CONFIG=ISO14443A_READER");
 
                     chameleonMiniDevice.receive(new WatchdogReceiveSink<String, Void>(3000) {
@@ -197,7 +251,9 @@ public class ChameleonMiniDevice extends LineBasedUsbSerialCardDevice
                                                 R.string.command_error, "CONFIG=", in));
                                     }
 
-                                    chameleonMiniDevice.send("TIMEOUT=2");
+                                    chameleonMiniDevice.sendBatched("TIMEOUT=2");
+                                    chameleonMiniDevice.sendBatched("IDENTIFY");
+                                    chameleonMiniDevice.flushBatch();
 
                                     ++state;
                                     break;
@@ -208,8 +264,6 @@ public class ChameleonMiniDevice extends LineBasedUsbSerialCardDevice
                                                 R.string.command_error, "TIMEOUT=", in));
                                     }
 
-                                    chameleonMiniDevice.send("IDENTIFY");
-
                                     ++state;
                                     break;
 
@@ -319,6 +373,14 @@ public class ChameleonMiniDevice extends LineBasedUsbSerialCardDevice
                 chameleonMiniDevice.setReceiving(true);
 
                 try {
+                    int slot = PreferenceManager.getDefaultSharedPreferences(context)
+                            .getInt(ChameleonMiniActivity.DEFAULT_SLOT_KEY, 1);
+                    MifareCardData mifareCardData = (MifareCardData) getCardData();
+
+                    final String setting = "SETTING=" + slot;
+                    final String uid = "UID=" + String.format("%08x", mifareCardData.uid);
+
+                    // Don't touch the slot at all unless the configuration was accepted
                     chameleonMiniDevice.send("CONFIG=MF_CLASSIC_1K");
 
                     chameleonMiniDevice.receive(new WatchdogReceiveSink<String, Boolean>(3000) {
@@ -333,29 +395,37 @@ public class ChameleonMiniDevice extends LineBasedUsbSerialCardDevice
                                                 R.string.command_error, "CONFIG=", in));
                                     }
 
-                                    int slot =
-                                            PreferenceManager.getDefaultSharedPreferences(context)
-                                                    .getInt(ChameleonMiniActivity.DEFAULT_SLOT_KEY,
-                                                            1);
-                                    chameleonMiniDevice.send("SETTING=" + slot);
+                                    chameleonMiniDevice.send(setting);
 
                                     ++state;
                                     break;
 
                                 case 1:
-                                    if (!in.equals("100:OK")) {
-                                        throw new IOException(context.getString(
-                                                R.string.command_error, "SETTING=", in));
+                                    // The UID must go to the newly selected slot, so it can't be
+                                    // sent until the slot switch has been confirmed
+                                    switch (in) {
+                                        case "100:OK":
+                                            chameleonMiniDevice.send(uid);
+                                            state = 3;
+                                            break;
+
+                                        case "101:OK WITH TEXT":
+                                            state = 2;
+                                            break;
+
+                                        default:
+                                            throw new IOException(context.getString(
+                                                    R.string.command_error, "SETTING=", in));
                                     }
+                                    break;
 
-                                    MifareCardData mifareCardData = (MifareCardData) getCardData();
-                                    chameleonMiniDevice.send(
-                                            "UID=" + String.format("%08x", mifareCardData.uid));
+                                case 2:
+                                    chameleonMiniDevice.send(uid);
 
                                     ++state;
                                     break;
 
-                                case 2:
+                                case 3:
                                     if (!in.equals("100:OK")) {
                                         throw new IOException(context.getString(
                                                 R.string.command_error, "UID=", in));
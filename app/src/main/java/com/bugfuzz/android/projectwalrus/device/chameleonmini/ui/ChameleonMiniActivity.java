@@ -33,6 +33,7 @@ import com.bugfuzz.android.projectwalrus.device.CardDevice;
 import com.bugfuzz.android.projectwalrus.device.CardDeviceManager;
 import com.bugfuzz.android.projectwalrus.device.chameleonmini.ChameleonMiniDevice;
 import com.bugfuzz.android.projectwalrus.device.ui.FindVersionFragment;
+import com.bugfuzz.android.projectwalrus.device.ui.SerialDeviceStatsUpdater;
 
 import java.io.IOException;
 
@@ -44,6 +45,8 @@ public class ChameleonMiniActivity extends AppCompatActivity
             "com.bugfuzz.android.projectwalrus.device.chameleonmini.ChameleonMiniActivity"
                     + ".EXTRA_DEVICE";
 
+    private SerialDeviceStatsUpdater serialDeviceStatsUpdater;
+
     public static Intent getStartActivityIntent(Context context, ChameleonMiniDevice device) {
         Intent intent = new Intent(context, ChameleonMiniActivity.class);
 
@@ -78,6 +81,9 @@ public class ChameleonMiniActivity extends AppCompatActivity
             return;
         }
 
+        serialDeviceStatsUpdater = new SerialDeviceStatsUpdater(chameleonMiniDevice.getStats(),
+                (TextView) findViewById(R.id.io_stats));
+
         getSupportFragmentManager().beginTransaction()
                 .replace(R.id.settings, new ChameleonMiniActivity.SettingsFragment())
                 .commit();
@@ -87,6 +93,24 @@ public class ChameleonMiniActivity extends AppCompatActivity
                 .commit();
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        if (serialDeviceStatsUpdater != null) {
+            serialDeviceStatsUpdater.start();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        if (serialDeviceStatsUpdater != null) {
+            serialDeviceStatsUpdater.stop();
+        }
+    }
+
     @Override
     public void onVersionResult(String version) {
         ((TextView) findViewById(R.id.version)).setText(version);
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bugfuzz.android.projectwalrus.device.lf;
+
+public class FskDemodulator extends LfDemodulator {
+
+    private final int shortWaveLength;
+    private final int longWaveLength;
+
+    private int waveLength;
+    private boolean inWave;
+    private int value;
+
+    // Emits 1 for symbols made of long waves and 0 for symbols made of short waves
+    public FskDemodulator(int symbolLength, int shortWaveLength, int longWaveLength,
+            LfSymbolSink symbolSink) {
+        super(symbolLength, symbolSink);
+
+        if (shortWaveLength <= 0 || longWaveLength <= shortWaveLength) {
+            throw new IllegalArgumentException("Invalid wave lengths");
+        }
+
+        this.shortWaveLength = shortWaveLength;
+        this.longWaveLength = longWaveLength;
+    }
+
+    @Override
+    protected void onSample(int sample) {
+        ++waveLength;
+
+        if (!slice(sample)) {
+            return;
+        }
+
+        if (inWave) {
+            // Edge jitter turns a pair of long waves into e.g. 11 + 9 samples, so a wave exactly
+            // between the two lengths keeps the current value rather than flipping it
+            int difference = waveLength * 2 - (shortWaveLength + longWaveLength);
+            if (difference != 0) {
+                value = difference > 0 ? 1 : 0;
+            }
+
+            addToRun(value, waveLength);
+        }
+
+        inWave = true;
+        waveLength = 0;
+    }
+
+    @Override
+    protected void onReset() {
+        waveLength = 0;
+        inWave = false;
+        value = 0;
+    }
+}
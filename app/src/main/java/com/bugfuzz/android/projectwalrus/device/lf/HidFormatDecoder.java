@@ -0,0 +1,99 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bugfuzz.android.projectwalrus.device.lf;
+
+import com.bugfuzz.android.projectwalrus.card.carddata.HIDCardData;
+import com.bugfuzz.android.projectwalrus.device.ReadCardDataOperation;
+
+import java.math.BigInteger;
+
+// Decodes HID Prox frames from FSK2a RF/50 symbols: an 8-bit preamble followed by 44
+// Manchester-coded bits, where 10 is a one and 01 is a zero
+public class HidFormatDecoder implements LfSymbolSink {
+
+    public static final int SYMBOL_LENGTH = 50;
+    public static final int SHORT_WAVE_LENGTH = 8;
+    public static final int LONG_WAVE_LENGTH = 10;
+
+    private static final int PREAMBLE = 0x1d;
+    private static final int FRAME_LENGTH = 96;
+    private static final int DATA_LENGTH = 44;
+
+    private final ReadCardDataOperation.ResultSink resultSink;
+
+    // The last FRAME_LENGTH symbols, the oldest at the top of frameHigh's low 32 bits
+    private long frameHigh;
+    private long frameLow;
+    private int frameLength;
+
+    private long lastTagId = -1;
+
+    public HidFormatDecoder(ReadCardDataOperation.ResultSink resultSink) {
+        this.resultSink = resultSink;
+    }
+
+    @Override
+    public void onSymbols(int value, int count) {
+        for (int i = 0; i < count; ++i) {
+            frameHigh = ((frameHigh << 1) | (frameLow >>> 63)) & 0xffffffffL;
+            frameLow = (frameLow << 1) | value;
+
+            if (frameLength < FRAME_LENGTH) {
+                ++frameLength;
+            }
+
+            if (frameLength == FRAME_LENGTH && frameHigh >>> 24 == PREAMBLE) {
+                decodeFrame();
+            }
+        }
+    }
+
+    @Override
+    public void onEnd() {
+        frameHigh = 0;
+        frameLow = 0;
+        frameLength = 0;
+
+        lastTagId = -1;
+    }
+
+    private void decodeFrame() {
+        long tagId = 0;
+
+        for (int i = 0; i < DATA_LENGTH; ++i) {
+            int first = getFrameSymbol(8 + i * 2);
+            int second = getFrameSymbol(8 + i * 2 + 1);
+            if (first == second) {
+                return;
+            }
+
+            tagId = (tagId << 1) | first;
+        }
+
+        // A trace normally holds the same frame several times over
+        if (tagId != lastTagId) {
+            lastTagId = tagId;
+            resultSink.onResult(new HIDCardData(BigInteger.valueOf(tagId)));
+        }
+    }
+
+    private int getFrameSymbol(int index) {
+        return (int) (index < 32 ? frameHigh >>> (31 - index) : frameLow >>> (95 - index)) & 1;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bugfuzz.android.projectwalrus.device.lf;
+
+public abstract class LfDemodulator implements LfSampleSink {
+
+    // Envelope tracking is in 1/256ths of a sample step, decaying by one step every 16 samples
+    private static final int ENVELOPE_SHIFT = 8;
+    private static final int ENVELOPE_DECAY = (1 << ENVELOPE_SHIFT) / 16;
+
+    private final int symbolLength;
+    private final LfSymbolSink symbolSink;
+
+    private int envelopeMin = 255 << ENVELOPE_SHIFT;
+    private int envelopeMax;
+    private boolean high;
+
+    private int runValue = -1;
+    private int runLength;
+    private int glitchLength;
+
+    protected LfDemodulator(int symbolLength, LfSymbolSink symbolSink) {
+        if (symbolLength <= 0) {
+            throw new IllegalArgumentException("Invalid symbol length");
+        }
+
+        this.symbolLength = symbolLength;
+        this.symbolSink = symbolSink;
+    }
+
+    @Override
+    public void onSamples(byte[] samples, int offset, int length) {
+        for (int i = offset; i < offset + length; ++i) {
+            onSample(samples[i] & 0xff);
+        }
+    }
+
+    @Override
+    public void onEnd() {
+        flushRun();
+        runValue = -1;
+        glitchLength = 0;
+
+        envelopeMin = 255 << ENVELOPE_SHIFT;
+        envelopeMax = 0;
+        high = false;
+
+        onReset();
+
+        symbolSink.onEnd();
+    }
+
+    protected abstract void onSample(int sample);
+
+    protected void onReset() {
+    }
+
+    // Returns whether the sample made the sliced signal rise from low to high
+    protected boolean slice(int sample) {
+        int scaledSample = sample << ENVELOPE_SHIFT;
+        envelopeMax = Math.max(scaledSample, envelopeMax - ENVELOPE_DECAY);
+        envelopeMin = Math.min(scaledSample, envelopeMin + ENVELOPE_DECAY);
+
+        int middle = (envelopeMax + envelopeMin) / 2;
+        int hysteresis = (envelopeMax - envelopeMin) / 8;
+
+        if (!high && scaledSample > middle + hysteresis) {
+            high = true;
+            return true;
+        }
+
+        if (high && scaledSample < middle - hysteresis) {
+            high = false;
+        }
+
+        return false;
+    }
+
+    // Values are binary, so anything that differs from the current run is held back until it
+    // lasts half a symbol. Shorter glitches (e.g. a misjudged wave at a symbol boundary) are
+    // folded back into the run rather than splitting it and losing their samples to rounding.
+    protected void addToRun(int value, int samples) {
+        if (value == runValue) {
+            runLength += glitchLength + samples;
+            glitchLength = 0;
+            return;
+        }
+
+        glitchLength += samples;
+        if (glitchLength * 2 >= symbolLength) {
+            flushRun();
+            runValue = value;
+            runLength = glitchLength;
+            glitchLength = 0;
+        }
+    }
+
+    private void flushRun() {
+        if (runValue != -1) {
+            int count = (runLength + symbolLength / 2) / symbolLength;
+            if (count > 0) {
+                symbolSink.onSymbols(runValue, count);
+            }
+        }
+
+        runLength = 0;
+    }
+}
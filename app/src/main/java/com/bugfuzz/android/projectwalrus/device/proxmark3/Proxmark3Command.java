@@ -20,10 +20,9 @@
 package com.bugfuzz.android.projectwalrus.device.proxmark3;
 
 import android.support.annotation.LongDef;
+import android.support.annotation.Nullable;
 import android.support.annotation.Size;
 
-import org.apache.commons.lang3.ArrayUtils;
-
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -37,23 +36,34 @@ class Proxmark3Command {
     public static final long ACK = 0xff;
     public static final long DEBUG_PRINT_STRING = 0x100;
     public static final long VERSION = 0x107;
+    public static final long DOWNLOAD_RAW_ADC_SAMPLES = 0x114;
+    public static final long DOWNLOADED_RAW_ADC_SAMPLES = 0x115;
+    public static final long ACQUIRE_RAW_ADC_SAMPLES_125K = 0x205;
     public static final long HID_DEMOD_FSK = 0x20b;
     public static final long HID_CLONE_TAG = 0x210;
     public static final long READER_ISO_14443A = 0x385;
     public static final long MEASURE_ANTENNA_TUNING = 0x400;
     public static final long MEASURED_ANTENNA_TUNING = 0x410;
+    public static final long MIFARE_READBL = 0x620;
     public static final long MIFARE_READSC = 0x621;
+    public static final long MIFARE_CHKKEYS = 0x623;
 
     static final long MEASURE_ANTENNA_TUNING_FLAG_TUNE_LF = 1;
     static final long MEASURE_ANTENNA_TUNING_FLAG_TUNE_HF = 2;
 
     static final long ISO14A_CONNECT = 1 << 0;
-    static final long ISO14A_NO_DISCONNECT = 1 << 1;
+
+    static final int MIFARE_CHKKEYS_MAX_KEYS = 512 / 6;
 
     @Opcode
     final long op;
     final long[] args;
     final byte[] data;
+    final int dataLength;
+    final boolean ng;
+    final short status;
+
+    private Proxmark3Frame frame;
 
     Proxmark3Command(@Opcode long op, @Size(3) long[] args, @Size(max = 512) byte[] data) {
         this.op = op;
@@ -66,7 +76,11 @@ class Proxmark3Command {
         if (data.length > 512) {
             throw new IllegalArgumentException("Data too long");
         }
-        this.data = Arrays.copyOf(data, 512);
+        this.data = data;
+        dataLength = data.length;
+
+        ng = false;
+        status = 0;
     }
 
     Proxmark3Command(@Opcode long op, @Size(max = 512) long[] args) {
@@ -77,29 +91,69 @@ class Proxmark3Command {
         this(op, new long[3]);
     }
 
+    // Wraps a received frame without copying it, until the frame is taken back for reuse
+    Proxmark3Command(Proxmark3Frame frame) {
+        op = frame.op;
+        args = frame.args;
+        data = frame.data;
+        dataLength = frame.dataLength;
+        ng = frame.ng;
+        status = frame.status;
+
+        this.frame = frame;
+    }
+
+    // Copies a command out of its frame so that it outlives the frame's reuse
+    Proxmark3Command(Proxmark3Command other) {
+        op = other.op;
+        args = other.args.clone();
+        data = Arrays.copyOf(other.data, other.dataLength);
+        dataLength = other.dataLength;
+        ng = other.ng;
+        status = other.status;
+    }
+
     static int getByteLength() {
-        return 8 + 3 * 8 + 512;
+        return Proxmark3Frame.LEGACY_LENGTH;
     }
 
-    static Proxmark3Command fromBytes(byte[] bytes) {
-        ByteBuffer bb = ByteBuffer.wrap(bytes);
+    @Nullable
+    synchronized Proxmark3Frame takeFrame() {
+        Proxmark3Frame frame = this.frame;
+        this.frame = null;
+        return frame;
+    }
+
+    @Nullable
+    byte[] toNgBytes() {
+        int payloadLength = 3 * 8 + dataLength;
+        if (op > 0xffff || payloadLength > Proxmark3Frame.NG_MAX_PAYLOAD_LENGTH) {
+            return null;
+        }
+
+        ByteBuffer bb = ByteBuffer.allocate(8 + payloadLength + 2);
         bb.order(ByteOrder.LITTLE_ENDIAN);
 
-        long op = bb.getLong();
+        bb.putInt(Proxmark3Frame.NG_COMMAND_MAGIC);
+        bb.putShort((short) payloadLength);
+        bb.putShort((short) op);
 
-        long[] args = new long[3];
-        for (int i = 0; i < 3; ++i) {
-            args[i] = bb.getLong();
+        for (long arg : args) {
+            bb.putLong(arg);
         }
 
-        byte[] data = new byte[512];
-        bb.get(data);
+        bb.put(data, 0, dataLength);
 
-        return new Proxmark3Command(op, args, data);
+        // The firmware doesn't require a CRC over USB
+        bb.putShort((short) Proxmark3Frame.NG_COMMAND_POSTAMBLE_MAGIC);
+
+        return bb.array();
     }
 
     byte[] toBytes() {
-        ByteBuffer bb = ByteBuffer.allocate(getByteLength());
+        byte[] bytes = new byte[getByteLength()];
+
+        ByteBuffer bb = ByteBuffer.wrap(bytes);
         bb.order(ByteOrder.LITTLE_ENDIAN);
 
         bb.putLong(op);
@@ -108,23 +162,75 @@ class Proxmark3Command {
             bb.putLong(arg);
         }
 
-        bb.put(data);
-
-        byte[] bytes = new byte[bb.capacity()];
-        bb.flip();
-        bb.get(bytes);
+        bb.put(data, 0, dataLength);
 
         return bytes;
     }
 
     @Override
     public String toString() {
-        return "<Proxmark3Command " + op + ", args " + Arrays.toString(args) + ", data "
-                + Arrays.toString(data) + ">";
+        return "<Proxmark3Command " + op + (ng ? " (NG, status " + status + ")" : "")
+                + ", args " + Arrays.toString(args) + ", data " + Arrays.toString(data) + ">";
     }
 
     public String dataAsString() {
-        return new String(ArrayUtils.subarray(data, 0, (int) args[0]));
+        int offset = getDataStringOffset();
+        return new String(data, offset, getDataStringEnd() - offset);
+    }
+
+    boolean dataStringEquals(byte[] value) {
+        int offset = getDataStringOffset();
+        if (getDataStringEnd() - offset != value.length) {
+            return false;
+        }
+
+        for (int i = 0; i < value.length; ++i) {
+            if (data[offset + i] != value[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    int dataStringIndexOf(byte[] value) {
+        return dataStringIndexOf(value, getDataStringOffset());
+    }
+
+    int dataStringIndexOf(byte[] value, int fromIndex) {
+        int end = getDataStringEnd() - value.length;
+
+        outer:
+        for (int i = Math.max(fromIndex, getDataStringOffset()); i <= end; ++i) {
+            for (int j = 0; j < value.length; ++j) {
+                if (data[i + j] != value[j]) {
+                    continue outer;
+                }
+            }
+
+            return i;
+        }
+
+        return -1;
+    }
+
+    int getDataStringOffset() {
+        // NG debug strings are preceded by a flags field, and NG version strings by the chip ID,
+        // section size and string length
+        return !ng ? 0 : op == DEBUG_PRINT_STRING ? 2 : op == VERSION ? 3 * 4 : 0;
+    }
+
+    int getDataStringEnd() {
+        if (!ng) {
+            return (int) Math.max(0, Math.min(args[0], dataLength));
+        }
+
+        int end = getDataStringOffset();
+        while (end < dataLength && data[end] != 0) {
+            ++end;
+        }
+
+        return end;
     }
 
     @Target({ElementType.FIELD, ElementType.PARAMETER, ElementType.LOCAL_VARIABLE})
@@ -133,12 +239,17 @@ class Proxmark3Command {
             ACK,
             DEBUG_PRINT_STRING,
             VERSION,
+            DOWNLOAD_RAW_ADC_SAMPLES,
+            DOWNLOADED_RAW_ADC_SAMPLES,
+            ACQUIRE_RAW_ADC_SAMPLES_125K,
             HID_DEMOD_FSK,
             HID_CLONE_TAG,
             READER_ISO_14443A,
             MEASURE_ANTENNA_TUNING,
             MEASURED_ANTENNA_TUNING,
-            MIFARE_READSC
+            MIFARE_READBL,
+            MIFARE_READSC,
+            MIFARE_CHKKEYS
     })
     public @interface Opcode {
     }
@@ -22,26 +22,37 @@ package com.bugfuzz.android.projectwalrus.device.proxmark3;
 import android.arch.lifecycle.Observer;
 import android.content.Context;
 import android.content.Intent;
+import android.content.SharedPreferences;
 import android.hardware.usb.UsbDevice;
+import android.preference.PreferenceManager;
 import android.support.annotation.Nullable;
 import android.support.annotation.UiThread;
 import android.support.annotation.WorkerThread;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Pair;
 
 import com.bugfuzz.android.projectwalrus.R;
 import com.bugfuzz.android.projectwalrus.card.carddata.CardData;
+import com.bugfuzz.android.projectwalrus.card.carddata.DictionaryMifareReadAttempt;
 import com.bugfuzz.android.projectwalrus.card.carddata.HIDCardData;
 import com.bugfuzz.android.projectwalrus.card.carddata.MifareCardData;
 import com.bugfuzz.android.projectwalrus.card.carddata.MifareReadAttempt;
+import com.bugfuzz.android.projectwalrus.card.carddata.StaticKeyMifareBlockReadAttempt;
 import com.bugfuzz.android.projectwalrus.card.carddata.StaticKeyMifareReadAttempt;
 import com.bugfuzz.android.projectwalrus.card.carddata.ui.MifareReadSetupDialogFragment;
 import com.bugfuzz.android.projectwalrus.device.CardDevice;
+import com.bugfuzz.android.projectwalrus.device.CardDeviceOperation;
+import com.bugfuzz.android.projectwalrus.device.CommandMacro;
 import com.bugfuzz.android.projectwalrus.device.ReadCardDataOperation;
+import com.bugfuzz.android.projectwalrus.device.RttEstimator;
+import com.bugfuzz.android.projectwalrus.device.SerialTransport;
 import com.bugfuzz.android.projectwalrus.device.UsbCardDevice;
 import com.bugfuzz.android.projectwalrus.device.UsbSerialCardDevice;
 import com.bugfuzz.android.projectwalrus.device.WriteOrEmulateCardDataOperation;
+import com.bugfuzz.android.projectwalrus.device.lf.FskDemodulator;
+import com.bugfuzz.android.projectwalrus.device.lf.HidFormatDecoder;
+import com.bugfuzz.android.projectwalrus.device.lf.LfSampleSink;
 import com.bugfuzz.android.projectwalrus.device.proxmark3.ui.Proxmark3Activity;
+import com.bugfuzz.android.projectwalrus.util.ByteRingBuffer;
 import com.felhr.usbserial.UsbSerialDevice;
 import com.felhr.usbserial.UsbSerialInterface;
 
@@ -53,12 +64,20 @@ import java.io.IOException;
 import java.math.BigInteger;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
 import java.util.concurrent.Semaphore;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.concurrent.TimeUnit;
 
 @CardDevice.Metadata(
         name = "Proxmark3",
@@ -75,15 +94,52 @@ import java.util.regex.Pattern;
 public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
         implements CardDevice.Versioned {
 
-    private static final long DEFAULT_TIMEOUT = 20 * 1000;
-    private static final Pattern TAG_ID = Pattern.compile("TAG ID: ([0-9a-fA-F]+)");
+    private static final long INITIAL_TIMEOUT = 20 * 1000;
+    private static final long DEFAULT_MIN_TIMEOUT = 250;
+    private static final long DEFAULT_MAX_TIMEOUT = 20 * 1000;
+    private static final int DEFAULT_PIPELINE_DEPTH = 4;
+    private static final int FRAME_POOL_CAPACITY = 32;
+    private static final int DEFAULT_AUTO_DETECT_LF_SHARE = 50;
+    private static final byte[] TAG_ID_MARKER = "TAG ID: ".getBytes();
+    private static final byte[] STOPPED = "Stopped".getBytes();
+
+    private static final ReceiveSink<Proxmark3Command, Proxmark3Command> VERSION_RESPONSE_SINK =
+            new ReceiveSink<Proxmark3Command, Proxmark3Command>() {
+                @Override
+                public Proxmark3Command onReceived(Proxmark3Command in) {
+                    return in.op == Proxmark3Command.ACK
+                            || (in.ng && in.op == Proxmark3Command.VERSION) ? in : null;
+                }
+            };
 
     private final Semaphore semaphore = new Semaphore(1);
 
+    private volatile int pipelineDepth = DEFAULT_PIPELINE_DEPTH;
+
+    private final Map<Long, RttEstimator> rttEstimators = new HashMap<>();
+    private long minTimeout = DEFAULT_MIN_TIMEOUT;
+    private long maxTimeout = DEFAULT_MAX_TIMEOUT;
+
+    private volatile boolean ngFraming;
+
+    // Frames are only obtained by the slicer in sliceIncoming(), i.e. on the I/O thread, which
+    // makes it the pool's single consumer
+    private final Proxmark3Frame.Pool framePool = new Proxmark3Frame.Pool(FRAME_POOL_CAPACITY);
+    private final Proxmark3Frame.Slicer frameSlicer = new Proxmark3Frame.Slicer(framePool);
+
     public Proxmark3Device(Context context, UsbDevice usbDevice) throws IOException {
         super(context, usbDevice, context.getString(R.string.idle));
+    }
 
-        send(new Proxmark3Command(Proxmark3Command.VERSION));
+    public Proxmark3Device(Context context, SerialTransport serialTransport) throws IOException {
+        super(context, serialTransport, context.getString(R.string.idle));
+    }
+
+    @Override
+    public void start() throws IOException {
+        super.start();
+
+        sendVersionIgnoringResponse();
     }
 
     @Override
@@ -98,19 +154,146 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
     }
 
     @Override
-    protected Pair<Proxmark3Command, Integer> sliceIncoming(byte[] in) {
-        if (in.length < Proxmark3Command.getByteLength()) {
+    protected void reopenConnection() throws IOException {
+        super.reopenConnection();
+
+        // The firmware may have been changed while the device was away, so renegotiate
+        ngFraming = false;
+        sendVersionIgnoringResponse();
+    }
+
+    @Override
+    protected Proxmark3Command sliceIncoming(ByteRingBuffer in) {
+        Proxmark3Frame frame = frameSlicer.slice(in);
+        if (frame == null) {
             return null;
         }
 
-        return new Pair<>(Proxmark3Command.fromBytes(in), Proxmark3Command.getByteLength());
+        if (frameSlicer.isNgFraming()) {
+            ngFraming = true;
+        }
+
+        return new Proxmark3Command(frame);
+    }
+
+    @Override
+    protected void onIncomingDiscarded() {
+        frameSlicer.reset();
+    }
+
+    @Override
+    protected String getCommandKey(Proxmark3Command out) {
+        return getOpKey(out.op);
+    }
+
+    @Override
+    protected boolean expectsResponse(Proxmark3Command out) {
+        // Legacy firmware only prints debug strings for these rather than ACKing them
+        return ngFraming || (out.op != Proxmark3Command.HID_DEMOD_FSK
+                && out.op != Proxmark3Command.HID_CLONE_TAG);
+    }
+
+    @Override
+    protected String getResponseKey(Proxmark3Command in) {
+        if (in.op == Proxmark3Command.MEASURED_ANTENNA_TUNING) {
+            return getOpKey(Proxmark3Command.MEASURE_ANTENNA_TUNING);
+        } else if (in.op == Proxmark3Command.DOWNLOADED_RAW_ADC_SAMPLES) {
+            return getOpKey(Proxmark3Command.DOWNLOAD_RAW_ADC_SAMPLES);
+        }
+
+        // Other legacy and mixed responses are plain ACKs that don't say what they answer, but
+        // NG responses carry the opcode of their command
+        return in.ng ? getOpKey(in.op) : null;
+    }
+
+    @Nullable
+    private static String getOpKey(long op) {
+        if (op == Proxmark3Command.VERSION) {
+            return "VERSION";
+        } else if (op == Proxmark3Command.READER_ISO_14443A) {
+            return "READER_ISO_14443A";
+        } else if (op == Proxmark3Command.MEASURE_ANTENNA_TUNING) {
+            return "MEASURE_ANTENNA_TUNING";
+        } else if (op == Proxmark3Command.MIFARE_READBL) {
+            return "MIFARE_READBL";
+        } else if (op == Proxmark3Command.MIFARE_READSC) {
+            return "MIFARE_READSC";
+        } else if (op == Proxmark3Command.MIFARE_CHKKEYS) {
+            return "MIFARE_CHKKEYS";
+        } else if (op == Proxmark3Command.HID_DEMOD_FSK) {
+            return "HID_DEMOD_FSK";
+        } else if (op == Proxmark3Command.HID_CLONE_TAG) {
+            return "HID_CLONE_TAG";
+        } else if (op == Proxmark3Command.ACQUIRE_RAW_ADC_SAMPLES_125K) {
+            return "ACQUIRE_RAW_ADC_SAMPLES_125K";
+        } else if (op == Proxmark3Command.DOWNLOAD_RAW_ADC_SAMPLES) {
+            return "DOWNLOAD_RAW_ADC_SAMPLES";
+        }
+
+        return null;
+    }
+
+    @Override
+    protected void recycleIncoming(Proxmark3Command in) {
+        Proxmark3Frame frame = in.takeFrame();
+        if (frame != null) {
+            framePool.recycle(frame);
+        }
+    }
+
+    @Override
+    protected Proxmark3Command copyIncoming(Proxmark3Command in) {
+        return new Proxmark3Command(in);
+    }
+
+    @Override
+    protected boolean isResponseFrame(Proxmark3Command in) {
+        return in.op == Proxmark3Command.ACK || in.op == Proxmark3Command.MEASURED_ANTENNA_TUNING
+                || (in.ng && in.op != Proxmark3Command.DEBUG_PRINT_STRING);
     }
 
     @Override
     protected byte[] formatOutgoing(Proxmark3Command out) {
+        if (ngFraming) {
+            byte[] bytes = out.toNgBytes();
+            if (bytes != null) {
+                return bytes;
+            }
+        }
+
         return out.toBytes();
     }
 
+    public boolean isUsingNgFraming() {
+        return ngFraming;
+    }
+
+    @Override
+    protected CommandMacro.ResponseMatcher<Proxmark3Command> createResponseMatcher(
+            final Proxmark3Command recordedResponse) {
+        return new CommandMacro.ResponseMatcher<Proxmark3Command>() {
+            @Override
+            public boolean matches(Proxmark3Command response) {
+                return response.op == recordedResponse.op
+                        && response.args[0] == recordedResponse.args[0];
+            }
+        };
+    }
+
+    @Override
+    public List<Proxmark3Command> runMacro(CommandMacro<Proxmark3Command> macro, long timeout)
+            throws IOException {
+        if (!tryAcquireAndSetStatus(context.getString(R.string.running_macro))) {
+            throw new IOException(context.getString(R.string.device_busy));
+        }
+
+        try {
+            return super.runMacro(macro, timeout);
+        } finally {
+            releaseAndSetStatus();
+        }
+    }
+
     @SuppressWarnings("BooleanMethodIsAlwaysInverted")
     private boolean tryAcquireAndSetStatus(String status) {
         if (!semaphore.tryAcquire()) {
@@ -127,16 +310,102 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
         semaphore.release();
     }
 
+    private RttEstimator getRttEstimator(long op) {
+        synchronized (rttEstimators) {
+            RttEstimator rttEstimator = rttEstimators.get(op);
+            if (rttEstimator == null) {
+                rttEstimator = new RttEstimator(INITIAL_TIMEOUT, minTimeout, maxTimeout);
+                rttEstimators.put(op, rttEstimator);
+            }
+
+            return rttEstimator;
+        }
+    }
+
+    public void setTimeoutLimits(long minTimeout, long maxTimeout) {
+        synchronized (rttEstimators) {
+            for (RttEstimator rttEstimator : rttEstimators.values()) {
+                rttEstimator.setLimits(minTimeout, maxTimeout);
+            }
+
+            this.minTimeout = minTimeout;
+            this.maxTimeout = maxTimeout;
+        }
+    }
+
+    private static <O> O awaitAndSample(PendingReceive<Proxmark3Command, O> pendingReceive,
+            RttEstimator rttEstimator) throws IOException {
+        O result = pendingReceive.await();
+
+        if (result != null) {
+            rttEstimator.onSample(pendingReceive.getRoundTripTime());
+        } else {
+            rttEstimator.onTimeout();
+        }
+
+        return result;
+    }
+
     private <O> O sendThenReceiveCommands(Proxmark3Command out,
             ReceiveSink<Proxmark3Command, O> receiveSink) throws IOException {
-        setReceiving(true);
+        RttEstimator rttEstimator = getRttEstimator(out.op);
+
+        return awaitAndSample(sendForResult(out, receiveSink, rttEstimator.getTimeout()),
+                rttEstimator);
+    }
+
+    @Nullable
+    private List<Proxmark3Command> sendThenReceiveCommandsPipelined(List<Proxmark3Command> outs,
+            long op, CardDeviceOperation.ShouldContinueCallback shouldContinueCallback)
+            throws IOException {
+        List<Proxmark3Command> results = new ArrayList<>(outs.size());
+        Deque<PendingReceive<Proxmark3Command, Proxmark3Command>> inFlight = new ArrayDeque<>();
 
         try {
-            send(out);
-            return receive(receiveSink);
+            int next = 0;
+            while (results.size() < outs.size() && shouldContinueCallback.shouldContinue()) {
+                while (next < outs.size() && inFlight.size() < pipelineDepth) {
+                    Proxmark3Command out = outs.get(next++);
+                    inFlight.add(sendBatchedForResult(out, new CommandWaiter(op),
+                            getRttEstimator(out.op).getTimeout()));
+                }
+                flushBatch();
+
+                Proxmark3Command result = awaitAndSample(inFlight.remove(),
+                        getRttEstimator(outs.get(results.size()).op));
+                if (result == null) {
+                    return null;
+                }
+
+                results.add(result);
+            }
         } finally {
-            setReceiving(false);
+            // The remaining commands are already on the wire, so drain their responses rather
+            // than leave them to be taken by whatever is sent next. Any that time out here stay
+            // registered long enough to swallow a late ACK.
+            for (PendingReceive<Proxmark3Command, Proxmark3Command> pendingReceive : inFlight) {
+                // CHECKSTYLE:OFF EmptyCatchBlock
+                try {
+                    pendingReceive.await();
+                } catch (IOException ignored) {
+                }
+                // CHECKSTYLE:ON EmptyCatchBlock
+            }
+        }
+
+        return results;
+    }
+
+    public int getPipelineDepth() {
+        return pipelineDepth;
+    }
+
+    public void setPipelineDepth(int pipelineDepth) {
+        if (pipelineDepth < 1) {
+            throw new IllegalArgumentException("Invalid pipeline depth");
         }
+
+        this.pipelineDepth = pipelineDepth;
     }
 
     @Override
@@ -145,9 +414,26 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
             Class<? extends CardData> cardDataClass, final int callbackId) {
         ensureOperationCreatedCallbackSupported(activity);
 
+        SharedPreferences sharedPref = PreferenceManager.getDefaultSharedPreferences(activity);
+        final boolean demodulateOnPhone = sharedPref.getBoolean(
+                Proxmark3Activity.DEMODULATE_LF_ON_PHONE_KEY, false);
+        final boolean autoDetect = sharedPref.getBoolean(Proxmark3Activity.AUTO_DETECT_KEY,
+                false);
+        final int lfShare = parseAutoDetectLfShare(sharedPref.getString(
+                Proxmark3Activity.AUTO_DETECT_LF_SHARE_KEY, null));
+
         if (cardDataClass == HIDCardData.class) {
-            ((OnOperationCreatedCallback) activity).onOperationCreated(new ReadHIDOperation(this),
-                    callbackId);
+            ReadCardDataOperation operation;
+            if (autoDetect) {
+                operation = new AutoDetectReadOperation(this, cardDataClass,
+                        Collections.<MifareReadAttempt>emptyList(), lfShare, demodulateOnPhone);
+            } else if (demodulateOnPhone) {
+                operation = new ReadLfSamplesOperation(this);
+            } else {
+                operation = new ReadHIDOperation(this);
+            }
+
+            ((OnOperationCreatedCallback) activity).onOperationCreated(operation, callbackId);
         } else if (cardDataClass == MifareCardData.class) {
             final MifareReadSetupDialogFragment dialog = MifareReadSetupDialogFragment.create(
                     callbackId);
@@ -161,7 +447,12 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
                         @Override
                         public void onChanged(@Nullable List<MifareReadAttempt> readAttempts) {
                             ((OnOperationCreatedCallback) activity).onOperationCreated(
-                                    new ReadMifareOperation(Proxmark3Device.this, readAttempts),
+                                    autoDetect
+                                            ? new AutoDetectReadOperation(Proxmark3Device.this,
+                                                    MifareCardData.class, readAttempts, lfShare,
+                                                    demodulateOnPhone)
+                                            : new ReadMifareOperation(Proxmark3Device.this,
+                                                    readAttempts),
                                     callbackId);
                         }
                     });
@@ -170,6 +461,23 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
         }
     }
 
+    // The share is a percentage of the time spent looking for LF cards, which must leave some
+    // time for each protocol. Fall back to the default rather than fail on a bad stored value.
+    static int parseAutoDetectLfShare(@Nullable String value) {
+        if (value == null) {
+            return DEFAULT_AUTO_DETECT_LF_SHARE;
+        }
+
+        int lfShare;
+        try {
+            lfShare = Integer.parseInt(value.trim());
+        } catch (NumberFormatException exception) {
+            return DEFAULT_AUTO_DETECT_LF_SHARE;
+        }
+
+        return Math.max(1, Math.min(lfShare, 99));
+    }
+
     @Override
     @UiThread
     public void createWriteOrEmulateDataOperation(AppCompatActivity activity, CardData cardData,
@@ -185,6 +493,13 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
         return Proxmark3Activity.getStartActivityIntent(context, this);
     }
 
+    // The response is still waited on, so that it can't be mistaken for the response to
+    // whatever is sent next
+    private void sendVersionIgnoringResponse() {
+        sendForResult(new Proxmark3Command(Proxmark3Command.VERSION), VERSION_RESPONSE_SINK,
+                getRttEstimator(Proxmark3Command.VERSION).getTimeout());
+    }
+
     @Override
     public String getVersion() throws IOException {
         if (!tryAcquireAndSetStatus(context.getString(R.string.getting_version))) {
@@ -193,8 +508,7 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
 
         try {
             Proxmark3Command version = sendThenReceiveCommands(
-                    new Proxmark3Command(Proxmark3Command.VERSION),
-                    new CommandWaiter(Proxmark3Command.ACK, DEFAULT_TIMEOUT));
+                    new Proxmark3Command(Proxmark3Command.VERSION), VERSION_RESPONSE_SINK);
             if (version == null) {
                 throw new IOException(context.getString(R.string.get_version_timeout));
             }
@@ -225,7 +539,7 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
             Proxmark3Command result = sendThenReceiveCommands(
                     new Proxmark3Command(Proxmark3Command.MEASURE_ANTENNA_TUNING,
                             new long[]{arg, 0, 0}),
-                    new CommandWaiter(Proxmark3Command.MEASURED_ANTENNA_TUNING, DEFAULT_TIMEOUT));
+                    new CommandWaiter(Proxmark3Command.MEASURED_ANTENNA_TUNING));
             if (result == null) {
                 throw new IOException(context.getString(R.string.tune_timeout));
             }
@@ -248,7 +562,7 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
         }
     }
 
-    private static class ReadHIDOperation extends ReadCardDataOperation {
+    static class ReadHIDOperation extends ReadCardDataOperation {
 
         ReadHIDOperation(CardDevice cardDevice) {
             super(cardDevice);
@@ -280,16 +594,13 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
                                 return null;
                             }
 
-                            String dataAsString = in.dataAsString();
-
-                            if (dataAsString.equals("Stopped")) {
+                            if (in.dataStringEquals(STOPPED)) {
                                 return true;
                             }
 
-                            Matcher matcher = TAG_ID.matcher(dataAsString);
-                            if (matcher.find() && resultSink != null) {
-                                resultSink.onResult(new HIDCardData(new BigInteger(
-                                        matcher.group(1), 16)));
+                            BigInteger tagId = parseTagId(in);
+                            if (tagId != null && resultSink != null) {
+                                resultSink.onResult(new HIDCardData(tagId));
                             }
 
                             return null;
@@ -304,7 +615,7 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
                     proxmark3Device.setReceiving(false);
                 }
 
-                proxmark3Device.send(new Proxmark3Command(Proxmark3Command.VERSION));
+                proxmark3Device.sendVersionIgnoringResponse();
             } finally {
                 proxmark3Device.releaseAndSetStatus();
             }
@@ -314,6 +625,178 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
         public Class<? extends CardData> getCardDataClass() {
             return HIDCardData.class;
         }
+
+        // Scans the demod's output in place, as it can print many lines per second. Like the
+        // "TAG ID: ([0-9a-fA-F]+)" regex this replaced, the first marker followed by hex wins.
+        @Nullable
+        static BigInteger parseTagId(Proxmark3Command in) {
+            int end = in.getDataStringEnd();
+
+            int from = in.getDataStringOffset();
+            for (; ; ) {
+                int start = in.dataStringIndexOf(TAG_ID_MARKER, from);
+                if (start == -1) {
+                    return null;
+                }
+                start += TAG_ID_MARKER.length;
+
+                long high = 0;
+                long low = 0;
+                int i = start;
+                for (; i < end; ++i) {
+                    int digit = Character.digit(in.data[i], 16);
+                    if (digit == -1) {
+                        break;
+                    }
+
+                    high = (high << 4) | (low >>> 60);
+                    low = (low << 4) | digit;
+                }
+
+                if (i == start) {
+                    from = start;
+                    continue;
+                }
+
+                // IDs too long to fit in the two longs don't come from real tags
+                if (i - start > 32) {
+                    return new BigInteger(new String(in.data, start, i - start), 16);
+                }
+
+                if (high == 0 && low >= 0) {
+                    return BigInteger.valueOf(low);
+                }
+
+                byte[] magnitude = new byte[16];
+                for (int j = 0; j < 8; ++j) {
+                    magnitude[7 - j] = (byte) (high >>> (j * 8));
+                    magnitude[15 - j] = (byte) (low >>> (j * 8));
+                }
+
+                return new BigInteger(1, magnitude);
+            }
+        }
+    }
+
+    private static class ReadLfSamplesOperation extends ReadCardDataOperation {
+
+        ReadLfSamplesOperation(CardDevice cardDevice) {
+            super(cardDevice);
+        }
+
+        @Override
+        @WorkerThread
+        public void execute(Context context, ShouldContinueCallback shouldContinueCallback,
+                ResultSink resultSink) throws IOException {
+            Proxmark3Device proxmark3Device = (Proxmark3Device) getCardDeviceOrThrow();
+
+            if (!proxmark3Device.tryAcquireAndSetStatus(context.getString(R.string.reading))) {
+                throw new IOException(context.getString(R.string.device_busy));
+            }
+
+            try {
+                LfSampleReader lfSampleReader = new LfSampleReader();
+
+                while (shouldContinueCallback.shouldContinue()) {
+                    lfSampleReader.read(context, proxmark3Device, resultSink);
+                }
+            } finally {
+                proxmark3Device.releaseAndSetStatus();
+            }
+        }
+
+        @Override
+        public Class<? extends CardData> getCardDataClass() {
+            return HIDCardData.class;
+        }
+    }
+
+    // Acquires one LF trace per read and decodes it on the phone. Not thread-safe, as the sample
+    // buffer is reused across reads.
+    private static class LfSampleReader {
+
+        // The size of the firmware's sample buffer
+        private static final int MAX_SAMPLES = 40000;
+
+        private final byte[] samples = new byte[MAX_SAMPLES];
+        private final List<CardData> results = new ArrayList<>();
+        private final LfSampleSink hidPipeline;
+
+        LfSampleReader() {
+            ReadCardDataOperation.ResultSink resultCollector =
+                    new ReadCardDataOperation.ResultSink() {
+                        @Override
+                        public void onResult(CardData cardData) {
+                            results.add(cardData);
+                        }
+                    };
+
+            hidPipeline = new FskDemodulator(HidFormatDecoder.SYMBOL_LENGTH,
+                    HidFormatDecoder.SHORT_WAVE_LENGTH, HidFormatDecoder.LONG_WAVE_LENGTH,
+                    new HidFormatDecoder(resultCollector));
+        }
+
+        // Returns whether any card was decoded from the trace
+        boolean read(Context context, Proxmark3Device proxmark3Device,
+                @Nullable ReadCardDataOperation.ResultSink resultSink) throws IOException {
+            Proxmark3Command acquired = proxmark3Device.sendThenReceiveCommands(
+                    new Proxmark3Command(Proxmark3Command.ACQUIRE_RAW_ADC_SAMPLES_125K,
+                            new long[]{1, 0, 0}),
+                    new CommandWaiter(Proxmark3Command.ACK));
+            if (acquired == null) {
+                throw new IOException(context.getString(R.string.read_card_timeout));
+            }
+
+            // The firmware reports the number of bits sampled, at 8 bits per sample
+            int sampleCount = (int) Math.min(acquired.args[0] / 8, MAX_SAMPLES);
+            if (sampleCount <= 0) {
+                return false;
+            }
+
+            Integer downloaded = proxmark3Device.sendThenReceiveCommands(
+                    new Proxmark3Command(Proxmark3Command.DOWNLOAD_RAW_ADC_SAMPLES,
+                            new long[]{0, sampleCount, 0}),
+                    new ReceiveSink<Proxmark3Command, Integer>() {
+                        private int length;
+
+                        @Override
+                        public Integer onReceived(Proxmark3Command in) {
+                            if (in.op == Proxmark3Command.ACK) {
+                                return length;
+                            }
+
+                            if (in.op != Proxmark3Command.DOWNLOADED_RAW_ADC_SAMPLES) {
+                                return null;
+                            }
+
+                            int offset = (int) in.args[0];
+                            int chunkLength = (int) Math.min(in.args[1], in.dataLength);
+                            if (offset >= 0 && chunkLength >= 0
+                                    && offset + chunkLength <= samples.length) {
+                                System.arraycopy(in.data, 0, samples, offset, chunkLength);
+                                length = Math.max(length, offset + chunkLength);
+                            }
+
+                            return null;
+                        }
+                    });
+            if (downloaded == null) {
+                throw new IOException(context.getString(R.string.read_card_timeout));
+            }
+
+            hidPipeline.onSamples(samples, 0, downloaded);
+            hidPipeline.onEnd();
+
+            boolean found = !results.isEmpty();
+            if (resultSink != null) {
+                for (CardData cardData : results) {
+                    resultSink.onResult(cardData);
+                }
+            }
+            results.clear();
+
+            return found;
+        }
     }
 
     private static class WriteOrEmulateHIDOperation extends WriteOrEmulateCardDataOperation {
@@ -339,7 +822,7 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
             try {
                 HIDCardData hidCardData = (HIDCardData) getCardData();
 
-                if (!proxmark3Device.sendThenReceiveCommands(
+                if (proxmark3Device.sendThenReceiveCommands(
                         new Proxmark3Command(
                                 Proxmark3Command.HID_CLONE_TAG,
                                 new long[]{
@@ -348,13 +831,13 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
                                         hidCardData.data.intValue()
                                 },
                                 new byte[]{hidCardData.data.bitLength() > 44 ? (byte) 1 : 0}),
-                        new WatchdogReceiveSink<Proxmark3Command, Boolean>(DEFAULT_TIMEOUT) {
+                        new ReceiveSink<Proxmark3Command, Boolean>() {
                             @Override
                             public Boolean onReceived(Proxmark3Command in) {
                                 return in.op == Proxmark3Command.DEBUG_PRINT_STRING
                                         && in.dataAsString().equals("DONE!") ? true : null;
                             }
-                        })) {
+                        }) == null) {
                     throw new IOException(context.getString(R.string.write_card_timeout));
                 }
             } finally {
@@ -387,41 +870,386 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
                 while (shouldContinueCallback.shouldContinue()) {
                     // TODO: do periodic VERSION-based device-aliveness checking like Chameleon
                     // Mini will/does
-                    Proxmark3Command result = proxmark3Device.sendThenReceiveCommands(
-                            new Proxmark3Command(Proxmark3Command.READER_ISO_14443A,
-                                    new long[]{Proxmark3Command.ISO14A_CONNECT, 0, 0}),
-                            new CommandWaiter(Proxmark3Command.ACK, DEFAULT_TIMEOUT));
+                    Proxmark3Command selectResult = proxmark3Device.selectIso14aCard(context);
+                    if (selectResult != null) {
+                        resultSink.onResult(readCard(context, proxmark3Device, selectResult,
+                                readAttempts, shouldContinueCallback));
+                    }
+                }
+            } finally {
+                proxmark3Device.releaseAndSetStatus();
+            }
+        }
+
+        @Override
+        public Class<? extends CardData> getCardDataClass() {
+            return MifareCardData.class;
+        }
+
+        static MifareCardData readCard(Context context, Proxmark3Device proxmark3Device,
+                Proxmark3Command selectResult, List<MifareReadAttempt> readAttempts,
+                ShouldContinueCallback shouldContinueCallback) throws IOException {
+            ByteBuffer bb = ByteBuffer.wrap(selectResult.data);
+            bb.order(ByteOrder.LITTLE_ENDIAN);
+
+            byte[] uid = new byte[10];
+            bb.get(uid);
+            uid = ArrayUtils.subarray(uid, 0, bb.get());
+
+            short atqa = bb.getShort();
+
+            byte sak = bb.get();
+
+            byte[] ats = new byte[bb.get()];
+            bb.get(ats);
+
+            // TODO: max sector number
+            MifareCardData mifareCardData = new MifareCardData(atqa, new BigInteger(uid), sak, ats,
+                    null, null);
+
+            for (MifareReadAttempt readAttempt : readAttempts) {
+                if (!shouldContinueCallback.shouldContinue()) {
+                    break;
+                }
+
+                readAttempt.accept(new ReadAttemptVisitor(context, proxmark3Device,
+                        mifareCardData, shouldContinueCallback));
+            }
+
+            return mifareCardData;
+        }
 
-                    if (result.args[0] != 0) {
-                        ByteBuffer bb = ByteBuffer.wrap(result.data);
-                        bb.order(ByteOrder.LITTLE_ENDIAN);
+        private static class ReadAttemptVisitor implements MifareReadAttempt.Visitor<Void> {
 
-                        byte[] uid = new byte[10];
-                        bb.get(uid);
-                        uid = ArrayUtils.subarray(uid, 0, bb.get());
+            private final Context context;
+            private final Proxmark3Device proxmark3Device;
+            private final MifareCardData mifareCardData;
+            private final ShouldContinueCallback shouldContinueCallback;
+
+            public ReadAttemptVisitor(Context context, Proxmark3Device proxmark3Device,
+                    MifareCardData mifareCardData, ShouldContinueCallback shouldContinueCallback) {
+                this.context = context;
+                this.proxmark3Device = proxmark3Device;
+                this.mifareCardData = mifareCardData;
+                this.shouldContinueCallback = shouldContinueCallback;
+            }
+
+            @Override
+            public Void visit(StaticKeyMifareReadAttempt staticKeyMifareReadAttempt)
+                    throws IOException {
+                Set<MifareCardData.SectorNumber> unreadSectorNumbers =
+                        new LinkedHashSet<>(staticKeyMifareReadAttempt.sectorNumbers);
+
+                for (MifareCardData.KeySlot keySlot :
+                        staticKeyMifareReadAttempt.keySlot.getKeySlots()) {
+                    if (unreadSectorNumbers.isEmpty()
+                            || !shouldContinueCallback.shouldContinue()) {
+                        break;
+                    }
+
+                    List<MifareCardData.SectorNumber> sectorNumbers =
+                            new ArrayList<>(unreadSectorNumbers);
+
+                    Map<MifareCardData.SectorNumber, MifareCardData.Sector> readSectors =
+                            readSectors(sectorNumbers,
+                                    Collections.nCopies(sectorNumbers.size(),
+                                            staticKeyMifareReadAttempt.key),
+                                    Collections.nCopies(sectorNumbers.size(), keySlot));
 
-                        short atqa = bb.getShort();
+                    mifareCardData.sectors.putAll(readSectors);
+                    unreadSectorNumbers.removeAll(readSectors.keySet());
+                }
+
+                return null;
+            }
+
+            @Override
+            public Void visit(DictionaryMifareReadAttempt dictionaryMifareReadAttempt)
+                    throws IOException {
+                List<MifareCardData.Key> keys = dictionaryMifareReadAttempt.keys;
+
+                Map<MifareCardData.SectorNumber, MifareCardData.Key> foundKeys =
+                        new HashMap<>();
+                Map<MifareCardData.SectorNumber, MifareCardData.KeySlot> foundKeySlots =
+                        new HashMap<>();
+
+                List<MifareCardData.SectorNumber> unkeyedSectorNumbers =
+                        new ArrayList<>(dictionaryMifareReadAttempt.sectorNumbers);
+
+                // Each round checks one chunk of the dictionary against every sector still
+                // lacking a key, so the number of round trips scales with the dictionary size
+                // over the chunk size rather than with the number of keys times sectors
+                checkKeys:
+                for (MifareCardData.KeySlot keySlot :
+                        dictionaryMifareReadAttempt.keySlot.getKeySlots()) {
+                    for (int offset = 0; offset < keys.size();
+                            offset += Proxmark3Command.MIFARE_CHKKEYS_MAX_KEYS) {
+                        if (unkeyedSectorNumbers.isEmpty()
+                                || !shouldContinueCallback.shouldContinue()) {
+                            break checkKeys;
+                        }
 
-                        byte sak = bb.get();
+                        int keyCount = Math.min(keys.size() - offset,
+                                Proxmark3Command.MIFARE_CHKKEYS_MAX_KEYS);
 
-                        byte[] ats = new byte[bb.get()];
-                        bb.get(ats);
+                        byte[] keyData = new byte[keyCount * 6];
+                        for (int i = 0; i < keyCount; ++i) {
+                            System.arraycopy(keys.get(offset + i).key, 0, keyData, i * 6, 6);
+                        }
 
-                        // TODO: max sector number
-                        MifareCardData mifareCardData = new MifareCardData(atqa,
-                                new BigInteger(uid), sak, ats, null, null);
+                        List<Proxmark3Command> commands = new ArrayList<>();
+                        for (MifareCardData.SectorNumber sectorNumber : unkeyedSectorNumbers) {
+                            commands.add(new Proxmark3Command(Proxmark3Command.MIFARE_CHKKEYS,
+                                    new long[]{sectorNumber.getFirstBlockNumber().number
+                                            | (keySlot == MifareCardData.KeySlot.A ? 0 : 1) << 8,
+                                            1, keyCount},
+                                    keyData));
+                        }
 
-                        for (MifareReadAttempt readAttempt : readAttempts) {
-                            if (!shouldContinueCallback.shouldContinue()) {
-                                break;
+                        List<Proxmark3Command> results =
+                                proxmark3Device.sendThenReceiveCommandsPipelined(commands,
+                                        Proxmark3Command.ACK, shouldContinueCallback);
+                        if (results == null) {
+                            throw new IOException(
+                                    context.getString(R.string.read_card_timeout));
+                        }
+
+                        for (int i = 0; i < results.size(); ++i) {
+                            Proxmark3Command result = results.get(i);
+                            if ((result.args[0] & 0xff) == 0) {
+                                continue;
                             }
 
-                            mifareCardData.sectors.putAll(readAttempt.accept(new ReadAttemptVisitor(
-                                    proxmark3Device, shouldContinueCallback)));
+                            MifareCardData.SectorNumber sectorNumber =
+                                    unkeyedSectorNumbers.get(i);
+
+                            foundKeys.put(sectorNumber, new MifareCardData.Key(
+                                    ArrayUtils.subarray(result.data, 0, 6)));
+                            foundKeySlots.put(sectorNumber, keySlot);
                         }
 
-                        resultSink.onResult(mifareCardData);
+                        unkeyedSectorNumbers.removeAll(foundKeys.keySet());
+                    }
+                }
+
+                List<MifareCardData.SectorNumber> sectorNumbers = new ArrayList<>();
+                List<MifareCardData.Key> sectorKeys = new ArrayList<>();
+                List<MifareCardData.KeySlot> sectorKeySlots = new ArrayList<>();
+                for (MifareCardData.SectorNumber sectorNumber :
+                        dictionaryMifareReadAttempt.sectorNumbers) {
+                    if (foundKeys.containsKey(sectorNumber)) {
+                        sectorNumbers.add(sectorNumber);
+                        sectorKeys.add(foundKeys.get(sectorNumber));
+                        sectorKeySlots.add(foundKeySlots.get(sectorNumber));
+                    }
+                }
+
+                if (!sectorNumbers.isEmpty() && shouldContinueCallback.shouldContinue()) {
+                    mifareCardData.sectors.putAll(
+                            readSectors(sectorNumbers, sectorKeys, sectorKeySlots));
+                }
+
+                return null;
+            }
+
+            @Override
+            public Void visit(StaticKeyMifareBlockReadAttempt staticKeyMifareBlockReadAttempt)
+                    throws IOException {
+                Map<MifareCardData.SectorNumber, List<MifareCardData.BlockNumber>>
+                        unreadBlockNumbers = new TreeMap<>();
+                for (MifareCardData.BlockNumber blockNumber :
+                        new TreeSet<>(staticKeyMifareBlockReadAttempt.blockNumbers)) {
+                    MifareCardData.SectorNumber sectorNumber = blockNumber.getSectorNumber();
+                    if (!unreadBlockNumbers.containsKey(sectorNumber)) {
+                        unreadBlockNumbers.put(sectorNumber,
+                                new ArrayList<MifareCardData.BlockNumber>());
+                    }
+                    unreadBlockNumbers.get(sectorNumber).add(blockNumber);
+                }
+
+                for (MifareCardData.KeySlot keySlot :
+                        staticKeyMifareBlockReadAttempt.keySlot.getKeySlots()) {
+                    if (unreadBlockNumbers.isEmpty()
+                            || !shouldContinueCallback.shouldContinue()) {
+                        break;
+                    }
+
+                    // Every block of a sector shares the sector's keys, so probe each sector
+                    // with one block first and only read the rest where that authenticated
+                    List<MifareCardData.BlockNumber> probeBlockNumbers = new ArrayList<>();
+                    for (List<MifareCardData.BlockNumber> blockNumbers :
+                            unreadBlockNumbers.values()) {
+                        probeBlockNumbers.add(blockNumbers.get(0));
+                    }
+
+                    Map<MifareCardData.BlockNumber, MifareCardData.Block> readBlocks =
+                            readBlocks(probeBlockNumbers, staticKeyMifareBlockReadAttempt.key,
+                                    keySlot);
+
+                    List<MifareCardData.BlockNumber> remainingBlockNumbers = new ArrayList<>();
+                    for (List<MifareCardData.BlockNumber> blockNumbers :
+                            unreadBlockNumbers.values()) {
+                        if (readBlocks.containsKey(blockNumbers.get(0))) {
+                            remainingBlockNumbers.addAll(
+                                    blockNumbers.subList(1, blockNumbers.size()));
+                        }
+                    }
+
+                    if (!remainingBlockNumbers.isEmpty()
+                            && shouldContinueCallback.shouldContinue()) {
+                        readBlocks.putAll(readBlocks(remainingBlockNumbers,
+                                staticKeyMifareBlockReadAttempt.key, keySlot));
+                    }
+
+                    mifareCardData.blocks.putAll(readBlocks);
+
+                    Iterator<List<MifareCardData.BlockNumber>> iterator =
+                            unreadBlockNumbers.values().iterator();
+                    while (iterator.hasNext()) {
+                        List<MifareCardData.BlockNumber> blockNumbers = iterator.next();
+                        blockNumbers.removeAll(readBlocks.keySet());
+                        if (blockNumbers.isEmpty()) {
+                            iterator.remove();
+                        }
+                    }
+                }
+
+                return null;
+            }
+
+            private Map<MifareCardData.SectorNumber, MifareCardData.Sector> readSectors(
+                    List<MifareCardData.SectorNumber> sectorNumbers,
+                    List<MifareCardData.Key> keys, List<MifareCardData.KeySlot> keySlots)
+                    throws IOException {
+                List<Proxmark3Command> commands = new ArrayList<>();
+                for (int i = 0; i < sectorNumbers.size(); ++i) {
+                    commands.add(new Proxmark3Command(Proxmark3Command.MIFARE_READSC,
+                            new long[]{sectorNumbers.get(i).number,
+                                    keySlots.get(i) == MifareCardData.KeySlot.A ? 0 : 1, 0},
+                            keys.get(i).key));
+                }
+
+                List<Proxmark3Command> results =
+                        proxmark3Device.sendThenReceiveCommandsPipelined(commands,
+                                Proxmark3Command.ACK, shouldContinueCallback);
+                if (results == null) {
+                    throw new IOException(context.getString(R.string.read_card_timeout));
+                }
+
+                Map<MifareCardData.SectorNumber, MifareCardData.Sector> sectors =
+                        new HashMap<>();
+
+                for (int i = 0; i < results.size(); ++i) {
+                    Proxmark3Command result = results.get(i);
+                    if ((result.args[0] & 0xff) == 0) {
+                        continue;
+                    }
+
+                    MifareCardData.SectorNumber sectorNumber = sectorNumbers.get(i);
+
+                    // A 4K's 16-block sectors still fit in a single response frame
+                    sectors.put(sectorNumber, new MifareCardData.Sector(
+                            ArrayUtils.subarray(result.data, 0,
+                                    sectorNumber.getBlockCount() * 16)));
+                }
+
+                return sectors;
+            }
+
+            private Map<MifareCardData.BlockNumber, MifareCardData.Block> readBlocks(
+                    List<MifareCardData.BlockNumber> blockNumbers, MifareCardData.Key key,
+                    MifareCardData.KeySlot keySlot) throws IOException {
+                List<Proxmark3Command> commands = new ArrayList<>();
+                for (MifareCardData.BlockNumber blockNumber : blockNumbers) {
+                    commands.add(new Proxmark3Command(Proxmark3Command.MIFARE_READBL,
+                            new long[]{blockNumber.number,
+                                    keySlot == MifareCardData.KeySlot.A ? 0 : 1, 0},
+                            key.key));
+                }
+
+                List<Proxmark3Command> results =
+                        proxmark3Device.sendThenReceiveCommandsPipelined(commands,
+                                Proxmark3Command.ACK, shouldContinueCallback);
+                if (results == null) {
+                    throw new IOException(context.getString(R.string.read_card_timeout));
+                }
+
+                Map<MifareCardData.BlockNumber, MifareCardData.Block> blocks = new HashMap<>();
+
+                for (int i = 0; i < results.size(); ++i) {
+                    Proxmark3Command result = results.get(i);
+                    if ((result.args[0] & 0xff) == 0) {
+                        continue;
+                    }
+
+                    blocks.put(blockNumbers.get(i), new MifareCardData.Block(
+                            ArrayUtils.subarray(result.data, 0, 16)));
+                }
+
+                return blocks;
+            }
+        }
+    }
+
+    // Alternates between looking for LF HID tags and HF ISO 14443A cards until one turns up, then
+    // stays on that protocol for as long as the card keeps being seen
+    private static class AutoDetectReadOperation extends ReadCardDataOperation {
+
+        // Long enough for the firmware to acquire and demodulate one LF trace
+        private static final long LF_SLICE = 400;
+        private static final long LOCK_TIMEOUT = 1000;
+        private static final long STOP_LF_TIMEOUT = 2 * 1000;
+
+        private final Class<? extends CardData> cardDataClass;
+        private final List<MifareReadAttempt> readAttempts;
+        private final int lfShare;
+        private final boolean demodulateLfOnPhone;
+
+        AutoDetectReadOperation(CardDevice cardDevice, Class<? extends CardData> cardDataClass,
+                List<MifareReadAttempt> readAttempts, int lfShare, boolean demodulateLfOnPhone) {
+            super(cardDevice);
+
+            if (lfShare <= 0 || lfShare >= 100) {
+                throw new IllegalArgumentException("Invalid LF share");
+            }
+
+            this.cardDataClass = cardDataClass;
+            this.readAttempts = readAttempts;
+            this.lfShare = lfShare;
+            this.demodulateLfOnPhone = demodulateLfOnPhone;
+        }
+
+        @Override
+        @WorkerThread
+        public void execute(Context context, ShouldContinueCallback shouldContinueCallback,
+                ResultSink resultSink) throws IOException {
+            Proxmark3Device proxmark3Device = (Proxmark3Device) getCardDeviceOrThrow();
+
+            if (!proxmark3Device.tryAcquireAndSetStatus(context.getString(R.string.reading))) {
+                throw new IOException(context.getString(R.string.device_busy));
+            }
+
+            try {
+                LfSampleReader lfSampleReader = demodulateLfOnPhone ? new LfSampleReader() : null;
+
+                while (shouldContinueCallback.shouldContinue()) {
+                    long lfStart = System.nanoTime();
+                    boolean found = lfSampleReader != null
+                            ? scanLfOnPhone(context, proxmark3Device, lfSampleReader,
+                                    shouldContinueCallback, resultSink)
+                            : scanLfOnDevice(context, proxmark3Device, shouldContinueCallback,
+                                    resultSink);
+
+                    if (!shouldContinueCallback.shouldContinue()) {
+                        break;
                     }
+
+                    // An LF slice is however long one trace took, so size the HF slice from that
+                    // to keep the duty cycle
+                    long lfTime = found ? LF_SLICE
+                            : TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lfStart);
+                    scanHf(context, proxmark3Device, lfTime * (100 - lfShare) / lfShare,
+                            shouldContinueCallback, resultSink);
                 }
             } finally {
                 proxmark3Device.releaseAndSetStatus();
@@ -430,89 +1258,154 @@ public class Proxmark3Device extends UsbSerialCardDevice<Proxmark3Command>
 
         @Override
         public Class<? extends CardData> getCardDataClass() {
-            return MifareCardData.class;
+            return cardDataClass;
         }
 
-        private class ReadAttemptVisitor implements MifareReadAttempt.Visitor<
-                Map<MifareCardData.SectorNumber, MifareCardData.Sector>> {
+        private boolean scanLfOnDevice(Context context, Proxmark3Device proxmark3Device,
+                ShouldContinueCallback shouldContinueCallback, @Nullable ResultSink resultSink)
+                throws IOException {
+            LfScanSink lfScanSink = new LfScanSink(shouldContinueCallback, resultSink);
+
+            proxmark3Device.setReceiving(true);
+
+            try {
+                proxmark3Device.send(new Proxmark3Command(Proxmark3Command.HID_DEMOD_FSK,
+                        new long[]{0, 0, 0}));
+
+                if (proxmark3Device.receive(lfScanSink) != null) {
+                    // Stopped from the device's button
+                    return lfScanSink.found;
+                }
+
+                // Any command stops the demod, and the version reply tells us it has stopped
+                proxmark3Device.send(new Proxmark3Command(Proxmark3Command.VERSION));
+                if (proxmark3Device.receive(
+                        new WatchdogReceiveSink<Proxmark3Command, Boolean>(STOP_LF_TIMEOUT) {
+                            @Override
+                            public Boolean onReceived(Proxmark3Command in) {
+                                return in.op == Proxmark3Command.ACK
+                                        || (in.ng && in.op == Proxmark3Command.VERSION)
+                                        ? true : null;
+                            }
+                        }) == null) {
+                    throw new IOException(context.getString(R.string.read_card_timeout));
+                }
+            } finally {
+                proxmark3Device.setReceiving(false);
+            }
+
+            return lfScanSink.found;
+        }
+
+        private boolean scanLfOnPhone(Context context, Proxmark3Device proxmark3Device,
+                LfSampleReader lfSampleReader, ShouldContinueCallback shouldContinueCallback,
+                @Nullable ResultSink resultSink) throws IOException {
+            // One trace is the slice unless a tag turns up, in which case keep reading until
+            // it has gone
+            boolean found = false;
+            long deadline = System.nanoTime();
+            do {
+                if (lfSampleReader.read(context, proxmark3Device, resultSink)) {
+                    found = true;
+                    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOCK_TIMEOUT);
+                }
+            } while (shouldContinueCallback.shouldContinue() && System.nanoTime() < deadline);
+
+            return found;
+        }
+
+        private boolean scanHf(Context context, Proxmark3Device proxmark3Device, long timeout,
+                ShouldContinueCallback shouldContinueCallback, @Nullable ResultSink resultSink)
+                throws IOException {
+            boolean found = false;
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+            do {
+                Proxmark3Command selectResult = proxmark3Device.selectIso14aCard(context);
+                if (selectResult == null) {
+                    continue;
+                }
+
+                MifareCardData mifareCardData = ReadMifareOperation.readCard(context,
+                        proxmark3Device, selectResult, readAttempts, shouldContinueCallback);
+                if (resultSink != null) {
+                    resultSink.onResult(mifareCardData);
+                }
+
+                found = true;
+                deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOCK_TIMEOUT);
+            } while (shouldContinueCallback.shouldContinue() && System.nanoTime() < deadline);
+
+            return found;
+        }
+
+        private static class LfScanSink extends ReceiveSink<Proxmark3Command, Boolean> {
 
-            private final Proxmark3Device proxmark3Device;
             private final ShouldContinueCallback shouldContinueCallback;
+            @Nullable
+            private final ResultSink resultSink;
 
-            public ReadAttemptVisitor(Proxmark3Device proxmark3Device,
-                    ShouldContinueCallback shouldContinueCallback) {
-                this.proxmark3Device = proxmark3Device;
+            private long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LF_SLICE);
+            private boolean found;
+
+            LfScanSink(ShouldContinueCallback shouldContinueCallback,
+                    @Nullable ResultSink resultSink) {
                 this.shouldContinueCallback = shouldContinueCallback;
+                this.resultSink = resultSink;
             }
 
             @Override
-            public Map<MifareCardData.SectorNumber, MifareCardData.Sector> visit(
-                    StaticKeyMifareReadAttempt staticKeyMifareReadAttempt) throws IOException {
-                final Map<MifareCardData.SectorNumber, MifareCardData.Sector> sectors =
-                        new HashMap<>();
+            public Boolean onReceived(Proxmark3Command in) {
+                if (in.op != Proxmark3Command.DEBUG_PRINT_STRING) {
+                    return null;
+                }
 
-                for (final MifareCardData.SectorNumber sectorNumber :
-                        staticKeyMifareReadAttempt.sectorNumbers) {
-                    if (!shouldContinueCallback.shouldContinue()) {
-                        break;
-                    }
+                if (in.dataStringEquals(STOPPED)) {
+                    return true;
+                }
 
-                    for (MifareCardData.KeySlot keySlot :
-                            staticKeyMifareReadAttempt.keySlot.getKeySlots()) {
-                        if (!shouldContinueCallback.shouldContinue()) {
-                            break;
-                        }
+                BigInteger tagId = ReadHIDOperation.parseTagId(in);
+                if (tagId != null) {
+                    found = true;
+                    deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LOCK_TIMEOUT);
 
-                        boolean didRead = proxmark3Device.sendThenReceiveCommands(
-                                new Proxmark3Command(Proxmark3Command.MIFARE_READSC,
-                                        new long[]{sectorNumber.number,
-                                                keySlot == MifareCardData.KeySlot.A ? 0 : 1, 0},
-                                        staticKeyMifareReadAttempt.key.key),
-                                new ReceiveSink<Proxmark3Command, Boolean>() {
-                                    @Override
-                                    public Boolean onReceived(Proxmark3Command in) {
-                                        if (in.op != Proxmark3Command.ACK) {
-                                            return null;
-                                        }
-
-                                        if ((in.args[0] & 0xff) == 0) {
-                                            return false;
-                                        }
-
-                                        // TODO: check the way the sector size is determined
-                                        // TODO: put determination into reusable form
-                                        sectors.put(sectorNumber, new MifareCardData.Sector(
-                                                ArrayUtils.subarray(in.data, 0,
-                                                        (sectorNumber.number < 32 ? 4 : 16) * 16)));
-
-                                        return true;
-                                    }
-
-                                    @Override
-                                    public boolean wantsMore() {
-                                        return shouldContinueCallback.shouldContinue();
-                                    }
-                                });
-
-                        if (didRead) {
-                            break;
-                        }
+                    if (resultSink != null) {
+                        resultSink.onResult(new HIDCardData(tagId));
                     }
                 }
 
-                return sectors;
+                return null;
+            }
+
+            @Override
+            public boolean wantsMore() {
+                return shouldContinueCallback.shouldContinue() && getTimeUntilDeadline() > 0;
+            }
+
+            @Override
+            public long getTimeUntilDeadline() {
+                return deadline - System.nanoTime();
             }
         }
     }
 
-    private static class CommandWaiter
-            extends WatchdogReceiveSink<Proxmark3Command, Proxmark3Command> {
+    @Nullable
+    private Proxmark3Command selectIso14aCard(Context context) throws IOException {
+        Proxmark3Command result = sendThenReceiveCommands(
+                new Proxmark3Command(Proxmark3Command.READER_ISO_14443A,
+                        new long[]{Proxmark3Command.ISO14A_CONNECT, 0, 0}),
+                new CommandWaiter(Proxmark3Command.ACK));
+        if (result == null) {
+            throw new IOException(context.getString(R.string.read_card_timeout));
+        }
 
-        private final long op;
+        return result.args[0] != 0 ? result : null;
+    }
 
-        CommandWaiter(long op, @SuppressWarnings("SameParameterValue") long timeout) {
-            super(timeout);
+    private static class CommandWaiter extends ReceiveSink<Proxmark3Command, Proxmark3Command> {
+
+        private final long op;
 
+        CommandWaiter(long op) {
             this.op = op;
         }
 
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bugfuzz.android.projectwalrus.device.proxmark3;
+
+import android.support.annotation.Nullable;
+
+import com.bugfuzz.android.projectwalrus.util.ByteRingBuffer;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+final class Proxmark3Frame {
+
+    static final int LEGACY_LENGTH = 8 + 3 * 8 + 512;
+
+    static final int NG_COMMAND_MAGIC = 0x61334d50;
+    static final int NG_COMMAND_POSTAMBLE_MAGIC = 0x3361;
+    static final int NG_MAX_PAYLOAD_LENGTH = 512;
+
+    private static final int NG_RESPONSE_MAGIC = 0x62334d50;
+    private static final int NG_RESPONSE_POSTAMBLE_MAGIC = 0x3362;
+    private static final int NG_RESPONSE_PREAMBLE_LENGTH = 10;
+    private static final byte[] NG_RESPONSE_MAGIC_BYTES = new byte[]{'P', 'M', '3', 'b'};
+
+    private static final int NG_LENGTH_INCOMPLETE = -1;
+    private static final int NG_LENGTH_INVALID = -2;
+
+    final long[] args = new long[3];
+    final byte[] data = new byte[512];
+    long op;
+    int dataLength;
+    boolean ng;
+    short status;
+
+    private Proxmark3Frame next;
+
+    static boolean isNgFrameStart(ByteRingBuffer in) {
+        return in.size() >= 4
+                && (getShortLE(in, 0) | (getShortLE(in, 2) << 16)) == NG_RESPONSE_MAGIC;
+    }
+
+    // Checked before waiting for the rest of the frame, so that a corrupt length can't stall the
+    // link waiting for bytes that will never come
+    static int getNgFrameLength(ByteRingBuffer in) {
+        if (in.size() < NG_RESPONSE_PREAMBLE_LENGTH) {
+            return NG_LENGTH_INCOMPLETE;
+        }
+
+        int lengthAndNg = getShortLE(in, 4);
+        int payloadLength = lengthAndNg & 0x7fff;
+        if (payloadLength > NG_MAX_PAYLOAD_LENGTH
+                || ((lengthAndNg & 0x8000) == 0 && payloadLength < 3 * 8)) {
+            return NG_LENGTH_INVALID;
+        }
+
+        return NG_RESPONSE_PREAMBLE_LENGTH + payloadLength + 2;
+    }
+
+    // Skips to the next NG magic at or after fromIndex, or if there isn't one, to the end of the
+    // buffer bar any partial magic
+    private static boolean skipToNgFrameStart(ByteRingBuffer in, int fromIndex) {
+        int index = in.indexOf(NG_RESPONSE_MAGIC_BYTES, fromIndex);
+        if (index != -1) {
+            in.skip(index);
+            return true;
+        }
+
+        in.skip(Math.max(Math.min(fromIndex, in.size()),
+                in.size() - (NG_RESPONSE_MAGIC_BYTES.length - 1)));
+        return false;
+    }
+
+    void decodeLegacy(ByteRingBuffer in) {
+        op = in.getLongLE(0);
+
+        for (int i = 0; i < 3; ++i) {
+            args[i] = in.getLongLE(8 + i * 8);
+        }
+
+        in.read(8 + 3 * 8, data, 0, data.length);
+        dataLength = data.length;
+
+        ng = false;
+        status = 0;
+    }
+
+    boolean decodeNg(ByteRingBuffer in) {
+        int lengthAndNg = getShortLE(in, 4);
+        int payloadLength = lengthAndNg & 0x7fff;
+        boolean ng = (lengthAndNg & 0x8000) != 0;
+
+        if (payloadLength > NG_MAX_PAYLOAD_LENGTH || (!ng && payloadLength < 3 * 8)) {
+            return false;
+        }
+
+        int length = NG_RESPONSE_PREAMBLE_LENGTH + payloadLength;
+        int postamble = getShortLE(in, length);
+        if (postamble != NG_RESPONSE_POSTAMBLE_MAGIC) {
+            // Accept the CRC in either byte order
+            int crc = crc14443a(in, length);
+            if (postamble != crc && postamble != (((crc & 0xff) << 8) | (crc >>> 8))) {
+                return false;
+            }
+        }
+
+        op = getShortLE(in, 8);
+        status = (short) getShortLE(in, 6);
+        this.ng = ng;
+
+        int dataOffset = NG_RESPONSE_PREAMBLE_LENGTH;
+        if (!ng) {
+            // "Mixed" frames carry the legacy arguments ahead of their data
+            for (int i = 0; i < 3; ++i) {
+                args[i] = in.getLongLE(dataOffset);
+                dataOffset += 8;
+            }
+        } else {
+            args[0] = args[1] = args[2] = 0;
+        }
+
+        dataLength = length - dataOffset;
+        in.read(dataOffset, data, 0, dataLength);
+
+        return true;
+    }
+
+    private static int getShortLE(ByteRingBuffer in, int index) {
+        return (in.get(index) & 0xff) | ((in.get(index + 1) & 0xff) << 8);
+    }
+
+    private static int crc14443a(ByteRingBuffer in, int length) {
+        int crc = 0x6363;
+        for (int i = 0; i < length; ++i) {
+            int ch = (in.get(i) ^ crc) & 0xff;
+            ch = (ch ^ (ch << 4)) & 0xff;
+            crc = ((crc >>> 8) ^ (ch << 8) ^ (ch << 3) ^ (ch >>> 4)) & 0xffff;
+        }
+
+        return crc;
+    }
+
+    // Firmware that speaks NG framing answers our initial legacy VERSION command with an NG frame,
+    // after which only NG frames are expected, and anything else is skipped up to the next NG
+    // magic rather than being read as a legacy frame
+    static class Slicer {
+
+        private final Pool pool;
+        private boolean ngFraming;
+
+        Slicer(Pool pool) {
+            this.pool = pool;
+        }
+
+        boolean isNgFraming() {
+            return ngFraming;
+        }
+
+        void reset() {
+            ngFraming = false;
+        }
+
+        // Returns the next complete frame and skips its bytes, or returns null if there isn't one
+        // yet
+        @Nullable
+        Proxmark3Frame slice(ByteRingBuffer in) {
+            for (; ; ) {
+                if (isNgFrameStart(in)) {
+                    int length = getNgFrameLength(in);
+                    if (length == NG_LENGTH_INCOMPLETE) {
+                        return null;
+                    }
+
+                    if (length != NG_LENGTH_INVALID) {
+                        if (in.size() < length) {
+                            return null;
+                        }
+
+                        Proxmark3Frame frame = pool.obtain();
+                        if (frame.decodeNg(in)) {
+                            in.skip(length);
+
+                            ngFraming = true;
+                            return frame;
+                        }
+
+                        pool.recycle(frame);
+                    }
+
+                    // Corrupt frame, but only NG firmware would have sent its magic
+                    ngFraming = true;
+                    if (!skipToNgFrameStart(in, 1)) {
+                        return null;
+                    }
+
+                    continue;
+                }
+
+                if (ngFraming) {
+                    if (!skipToNgFrameStart(in, 0)) {
+                        return null;
+                    }
+
+                    continue;
+                }
+
+                if (in.size() < LEGACY_LENGTH) {
+                    return null;
+                }
+
+                Proxmark3Frame frame = pool.obtain();
+                frame.decodeLegacy(in);
+                in.skip(LEGACY_LENGTH);
+
+                return frame;
+            }
+        }
+    }
+
+    static class Pool {
+
+        private final AtomicReference<Proxmark3Frame> top = new AtomicReference<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicReference<Thread> consumer = new AtomicReference<>();
+        private final int capacity;
+
+        Pool(int capacity) {
+            this.capacity = capacity;
+        }
+
+        // Frames may be recycled from any thread, but must only be obtained from one, which
+        // rules out the ABA problem for this lock-free stack
+        Proxmark3Frame obtain() {
+            Thread thread = Thread.currentThread();
+            if (consumer.get() != thread && !consumer.compareAndSet(null, thread)) {
+                throw new IllegalStateException("Frames obtained from more than one thread");
+            }
+
+            for (; ; ) {
+                Proxmark3Frame frame = top.get();
+                if (frame == null) {
+                    return new Proxmark3Frame();
+                }
+
+                if (top.compareAndSet(frame, frame.next)) {
+                    frame.next = null;
+                    size.decrementAndGet();
+                    return frame;
+                }
+            }
+        }
+
+        void recycle(Proxmark3Frame frame) {
+            if (size.incrementAndGet() > capacity) {
+                size.decrementAndGet();
+                return;
+            }
+
+            for (; ; ) {
+                Proxmark3Frame top = this.top.get();
+                frame.next = top;
+                if (this.top.compareAndSet(top, frame)) {
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -24,6 +24,7 @@ import android.content.Intent;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.preference.PreferenceFragmentCompat;
 import android.support.v7.widget.Toolbar;
 import android.view.View;
 import android.widget.TextView;
@@ -34,6 +35,7 @@ import com.bugfuzz.android.projectwalrus.device.CardDevice;
 import com.bugfuzz.android.projectwalrus.device.CardDeviceManager;
 import com.bugfuzz.android.projectwalrus.device.proxmark3.Proxmark3Device;
 import com.bugfuzz.android.projectwalrus.device.ui.FindVersionFragment;
+import com.bugfuzz.android.projectwalrus.device.ui.SerialDeviceStatsUpdater;
 
 import java.io.IOException;
 
@@ -41,12 +43,17 @@ public class Proxmark3Activity extends AppCompatActivity
         implements FindVersionFragment.OnFindVersionCallback,
         Proxmark3TuneFragment.OnTuneResultCallback {
 
+    public static final String DEMODULATE_LF_ON_PHONE_KEY = "pref_key_proxmark3_demodulate_lf";
+    public static final String AUTO_DETECT_KEY = "pref_key_proxmark3_auto_detect";
+    public static final String AUTO_DETECT_LF_SHARE_KEY =
+            "pref_key_proxmark3_auto_detect_lf_share";
     private static final String EXTRA_DEVICE =
             "com.bugfuzz.android.projectwalrus.device.proxmark3.Proxmark3Activity.EXTRA_DEVICE";
 
     private static final String PROXMARK3_TUNE_DIALOG_FRAGMENT_TAG = "proxmark3_tune_dialog";
 
     private Proxmark3Device proxmark3Device;
+    private SerialDeviceStatsUpdater serialDeviceStatsUpdater;
 
     public static Intent getStartActivityIntent(Context context, Proxmark3Device device) {
         Intent intent = new Intent(context, Proxmark3Activity.class);
@@ -77,11 +84,36 @@ public class Proxmark3Activity extends AppCompatActivity
 
         setSupportActionBar((Toolbar) findViewById(R.id.toolbar));
 
+        serialDeviceStatsUpdater = new SerialDeviceStatsUpdater(proxmark3Device.getStats(),
+                (TextView) findViewById(R.id.io_stats));
+
+        getSupportFragmentManager().beginTransaction()
+                .replace(R.id.settings, new Proxmark3Activity.SettingsFragment())
+                .commit();
+
         getSupportFragmentManager().beginTransaction()
                 .add(FindVersionFragment.show(proxmark3Device), "find_version_fragment_id")
                 .commit();
     }
 
+    @Override
+    protected void onResume() {
+        super.onResume();
+
+        if (serialDeviceStatsUpdater != null) {
+            serialDeviceStatsUpdater.start();
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        if (serialDeviceStatsUpdater != null) {
+            serialDeviceStatsUpdater.stop();
+        }
+    }
+
     @Override
     public void onVersionResult(String version) {
         ((TextView) findViewById(R.id.version)).setText(version);
@@ -133,4 +165,12 @@ public class Proxmark3Activity extends AppCompatActivity
         Toast.makeText(this, getString(R.string.failed_to_tune, exception.getMessage()),
                 Toast.LENGTH_LONG).show();
     }
+
+    public static class SettingsFragment extends PreferenceFragmentCompat {
+
+        @Override
+        public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
+            addPreferencesFromResource(R.xml.preferences_proxmark3);
+        }
+    }
 }
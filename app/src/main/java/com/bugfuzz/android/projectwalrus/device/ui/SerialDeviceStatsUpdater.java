@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bugfuzz.android.projectwalrus.device.ui;
+
+import android.content.Context;
+import android.os.Handler;
+import android.widget.TextView;
+
+import com.bugfuzz.android.projectwalrus.R;
+import com.bugfuzz.android.projectwalrus.device.SerialDeviceStats;
+
+import java.util.Map;
+
+public class SerialDeviceStatsUpdater implements Runnable {
+
+    private static final long UPDATE_INTERVAL = 1000;
+
+    private final SerialDeviceStats stats;
+    private final TextView textView;
+    private final Handler handler = new Handler();
+
+    public SerialDeviceStatsUpdater(SerialDeviceStats stats, TextView textView) {
+        this.stats = stats;
+        this.textView = textView;
+    }
+
+    public void start() {
+        handler.removeCallbacks(this);
+        handler.post(this);
+    }
+
+    public void stop() {
+        handler.removeCallbacks(this);
+    }
+
+    @Override
+    public void run() {
+        Context context = textView.getContext();
+
+        StringBuilder text = new StringBuilder(context.getString(R.string.io_stats_summary,
+                stats.getBytesIn(), stats.getFramesIn(), stats.getBytesOut(),
+                stats.getFramesOut(), stats.getFramesDropped()));
+
+        for (Map.Entry<String, SerialDeviceStats.LatencyHistogram> entry :
+                stats.getLatencies().entrySet()) {
+            SerialDeviceStats.LatencyHistogram latencies = entry.getValue();
+
+            text.append('\n').append(context.getString(R.string.io_stats_latency,
+                    entry.getKey(), latencies.getCount(), toMillis(latencies.getMean()),
+                    toMillis(latencies.getPercentile(95)), toMillis(latencies.getMax())));
+        }
+
+        textView.setText(text);
+
+        handler.postDelayed(this, UPDATE_INTERVAL);
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / 1e6;
+    }
+}
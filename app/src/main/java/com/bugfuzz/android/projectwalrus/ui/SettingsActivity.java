@@ -23,6 +23,7 @@ import android.os.Bundle;
 import android.support.v7.app.AppCompatActivity;
 import android.support.v7.preference.PreferenceFragmentCompat;
 
+import com.bugfuzz.android.projectwalrus.BuildConfig;
 import com.bugfuzz.android.projectwalrus.R;
 
 public class SettingsActivity extends AppCompatActivity {
@@ -41,6 +42,11 @@ public class SettingsActivity extends AppCompatActivity {
         @Override
         public void onCreatePreferences(Bundle savedInstanceState, String rootKey) {
             addPreferencesFromResource(R.xml.preferences);
+
+            if (!BuildConfig.DEBUG) {
+                getPreferenceScreen().removePreference(
+                        findPreference("pref_key_developer_category"));
+            }
         }
     }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bugfuzz.android.projectwalrus.util;
+
+public class ByteRingBuffer {
+
+    private byte[] buffer;
+    private int head;
+    private int size;
+
+    public ByteRingBuffer(int initialCapacity) {
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid initial capacity");
+        }
+
+        int capacity = 1;
+        while (capacity < initialCapacity) {
+            capacity <<= 1;
+        }
+
+        buffer = new byte[capacity];
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    public void write(byte[] src) {
+        write(src, 0, src.length);
+    }
+
+    public void write(byte[] src, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > src.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        ensureCapacity(size + length);
+
+        int mask = buffer.length - 1;
+        int tail = (head + size) & mask;
+        int firstLength = Math.min(length, buffer.length - tail);
+
+        System.arraycopy(src, offset, buffer, tail, firstLength);
+        System.arraycopy(src, offset + firstLength, buffer, 0, length - firstLength);
+
+        size += length;
+    }
+
+    public byte get(int index) {
+        checkIndex(index, 1);
+
+        return buffer[(head + index) & (buffer.length - 1)];
+    }
+
+    public void read(int index, byte[] dst, int dstOffset, int length) {
+        checkIndex(index, length);
+        if (dstOffset < 0 || dstOffset + length > dst.length) {
+            throw new IndexOutOfBoundsException();
+        }
+
+        int mask = buffer.length - 1;
+        int start = (head + index) & mask;
+        int firstLength = Math.min(length, buffer.length - start);
+
+        System.arraycopy(buffer, start, dst, dstOffset, firstLength);
+        System.arraycopy(buffer, 0, dst, dstOffset + firstLength, length - firstLength);
+    }
+
+    public long getLongLE(int index) {
+        checkIndex(index, 8);
+
+        int mask = buffer.length - 1;
+        long value = 0;
+        for (int i = 7; i >= 0; --i) {
+            value = (value << 8) | (buffer[(head + index + i) & mask] & 0xff);
+        }
+
+        return value;
+    }
+
+    public int indexOf(byte[] pattern, int fromIndex) {
+        if (pattern.length == 0) {
+            throw new IllegalArgumentException("Empty pattern");
+        }
+
+        int mask = buffer.length - 1;
+        outer:
+        for (int i = Math.max(fromIndex, 0); i <= size - pattern.length; ++i) {
+            for (int j = 0; j < pattern.length; ++j) {
+                if (buffer[(head + i + j) & mask] != pattern[j]) {
+                    continue outer;
+                }
+            }
+
+            return i;
+        }
+
+        return -1;
+    }
+
+    public void skip(int count) {
+        checkIndex(0, count);
+
+        head = (head + count) & (buffer.length - 1);
+        size -= count;
+
+        if (size == 0) {
+            head = 0;
+        }
+    }
+
+    public void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    private void checkIndex(int index, int length) {
+        if (index < 0 || length < 0 || index + length > size) {
+            throw new IndexOutOfBoundsException();
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= buffer.length) {
+            return;
+        }
+
+        int newCapacity = buffer.length;
+        while (newCapacity < capacity) {
+            newCapacity <<= 1;
+        }
+
+        byte[] newBuffer = new byte[newCapacity];
+        read(0, newBuffer, 0, size);
+
+        buffer = newBuffer;
+        head = 0;
+    }
+}
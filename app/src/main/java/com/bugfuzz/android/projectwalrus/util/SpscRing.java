@@ -0,0 +1,133 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bugfuzz.android.projectwalrus.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class SpscRing<E> {
+
+    private final AtomicReferenceArray<E> slots;
+    private final int mask;
+    private final boolean overwriteOldest;
+
+    private final AtomicLong head = new AtomicLong();
+    private final AtomicLong tail = new AtomicLong();
+
+    private long overrunCount;
+    private E overwritten;
+
+    public SpscRing(int minCapacity, boolean overwriteOldest) {
+        if (minCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity");
+        }
+
+        int capacity = 1;
+        while (capacity < minCapacity) {
+            capacity <<= 1;
+        }
+
+        slots = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+        this.overwriteOldest = overwriteOldest;
+    }
+
+    public int capacity() {
+        return slots.length();
+    }
+
+    public int size() {
+        return (int) Math.min(tail.get() - head.get(), slots.length());
+    }
+
+    public boolean offer(E element) {
+        long tail = this.tail.get();
+
+        if (!overwriteOldest && tail - head.get() >= slots.length()) {
+            return false;
+        }
+
+        if (overwriteOldest) {
+            // The consumer clears each slot it takes, so anything still here was never taken
+            overwritten = slots.getAndSet((int) tail & mask, element);
+        } else {
+            slots.set((int) tail & mask, element);
+        }
+        this.tail.set(tail + 1);
+
+        return true;
+    }
+
+    public E poll() {
+        for (; ; ) {
+            long head = this.head.get();
+            long tail = this.tail.get();
+            if (head == tail) {
+                return null;
+            }
+
+            if (overwriteOldest && tail - head >= slots.length()) {
+                // The producer has lapped us (or is about to overwrite the head slot), so skip
+                // ahead to the oldest element that is still safe to read
+                long skipTo = tail - slots.length() + 1;
+                overrunCount += skipTo - head;
+                this.head.lazySet(skipTo);
+                continue;
+            }
+
+            E element = slots.get((int) head & mask);
+
+            if (overwriteOldest) {
+                // Claim the element so that the producer can tell whether it overwrote it before
+                // it was taken
+                if (this.tail.get() - head >= slots.length()
+                        || !slots.compareAndSet((int) head & mask, element, null)) {
+                    continue;
+                }
+            } else {
+                slots.lazySet((int) head & mask, null);
+            }
+
+            this.head.lazySet(head + 1);
+
+            return element;
+        }
+    }
+
+    public void clear() {
+        head.lazySet(tail.get());
+    }
+
+    // Producer side: returns the element the last offer overwrote before the consumer took it,
+    // if any, so that it can be released
+    public E takeOverwritten() {
+        E overwritten = this.overwritten;
+        this.overwritten = null;
+
+        return overwritten;
+    }
+
+    public long takeOverrunCount() {
+        long overrunCount = this.overrunCount;
+        this.overrunCount = 0;
+
+        return overrunCount;
+    }
+}
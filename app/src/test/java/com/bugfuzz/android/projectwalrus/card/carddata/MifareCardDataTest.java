@@ -0,0 +1,108 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bugfuzz.android.projectwalrus.card.carddata;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.math.BigInteger;
+
+public class MifareCardDataTest {
+
+    // Saved by the release before single-block reads were added
+    @Test
+    public void readsCardSavedWithoutBlocks() throws IOException, ClassNotFoundException {
+        MifareCardData mifareCardData =
+                deserialize(readResource("mifare_card_without_sectors.ser"));
+
+        assertEquals(new BigInteger("01020304", 16), mifareCardData.uid);
+        assertTrue(mifareCardData.sectors.isEmpty());
+        assertTrue(mifareCardData.blocks.isEmpty());
+        assertNull(mifareCardData.maxSector);
+        assertEquals(new MifareCardData((short) 0x0004, new BigInteger("01020304", 16),
+                (byte) 0x08, new byte[0], null, null), mifareCardData);
+    }
+
+    @Test
+    public void readsCardSavedWithSectors() throws IOException, ClassNotFoundException {
+        MifareCardData mifareCardData =
+                deserialize(readResource("mifare_card_with_sectors.ser"));
+
+        byte[] data = new byte[64];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) i;
+        }
+
+        assertEquals(1, mifareCardData.sectors.size());
+        assertEquals(new MifareCardData.Sector(data),
+                mifareCardData.sectors.get(new MifareCardData.SectorNumber(1)));
+        assertEquals(new MifareCardData.SectorNumber(15), mifareCardData.maxSector);
+        assertTrue(mifareCardData.blocks.isEmpty());
+    }
+
+    @Test
+    public void roundTripsBlocks() throws IOException, ClassNotFoundException {
+        MifareCardData mifareCardData = new MifareCardData((short) 0x0004,
+                new BigInteger("01020304", 16), (byte) 0x08, new byte[0], null,
+                new MifareCardData.SectorNumber(15));
+        mifareCardData.blocks.put(new MifareCardData.BlockNumber(4),
+                new MifareCardData.Block(new byte[16]));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ObjectOutputStream objectOut = new ObjectOutputStream(out);
+        objectOut.writeObject(mifareCardData);
+        objectOut.close();
+
+        assertEquals(mifareCardData, deserialize(out.toByteArray()));
+    }
+
+    static byte[] readResource(String name) throws IOException {
+        InputStream in = MifareCardDataTest.class.getResourceAsStream(name);
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[1024];
+            for (int read; (read = in.read(buffer)) != -1; ) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+
+    static MifareCardData deserialize(byte[] serialized)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+        try {
+            return (MifareCardData) in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bugfuzz.android.projectwalrus.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Arrays;
+import java.util.List;
+
+public class CommandMacroTest {
+
+    private static final long TIMEOUT = 2000;
+
+    private PipeSerialTransport transport;
+    private TestLineDevice device;
+
+    @Before
+    public void setUp() throws IOException {
+        transport = new PipeSerialTransport();
+        device = new TestLineDevice(transport);
+        device.start();
+    }
+
+    @After
+    public void tearDown() {
+        device.close();
+    }
+
+    @Test
+    public void recordsKeyedResponsesAgainstTheirCommands() throws IOException {
+        device.startMacroRecording();
+
+        UsbSerialCardDevice.PendingReceive<String, String> first =
+                device.sendForResult("A=1", TestLineDevice.ANY_RESPONSE, TIMEOUT);
+        UsbSerialCardDevice.PendingReceive<String, String> second =
+                device.sendForResult("B=2", TestLineDevice.ANY_RESPONSE, TIMEOUT);
+        reply("B:two", "#debug", "A:one");
+        first.await();
+        second.await();
+
+        List<CommandMacro.Step<String>> steps = device.stopMacroRecording().getSteps();
+
+        assertEquals(2, steps.size());
+        assertEquals("A=1", steps.get(0).getCommand());
+        assertTrue(steps.get(0).getResponseMatcher().matches("A:one"));
+        assertFalse(steps.get(0).getResponseMatcher().matches("B:two"));
+        assertEquals("B=2", steps.get(1).getCommand());
+        assertTrue(steps.get(1).getResponseMatcher().matches("B:two"));
+    }
+
+    @Test
+    public void recordsUnkeyedResponsesInOrderPastDebugFrames() throws IOException {
+        device.startMacroRecording();
+
+        UsbSerialCardDevice.PendingReceive<String, String> first =
+                device.sendForResult("A=1", TestLineDevice.ANY_RESPONSE, TIMEOUT);
+        device.send("B=2");
+        reply("#debug", "one");
+        first.await();
+
+        List<CommandMacro.Step<String>> steps = device.stopMacroRecording().getSteps();
+
+        assertTrue(steps.get(0).getResponseMatcher().matches("one"));
+        assertNull(steps.get(1).getResponseMatcher());
+    }
+
+    @Test
+    public void replaysPastInterleavedDebugFrames() throws IOException {
+        respondOnceReceived(2, "#debug", "B:two", "#debug", "A:one");
+
+        List<String> responses = device.runMacro(new CommandMacro<String>()
+                .addStep("A=1", expect("A:one"))
+                .addStep("B=2", expect("B:two")), TIMEOUT);
+
+        assertEquals(Arrays.asList("A:one", "B:two"), responses);
+    }
+
+    @Test(expected = IOException.class)
+    public void replayFailsOnUnexpectedResponse() throws IOException {
+        respondOnceReceived(1, "#debug", "A:nope");
+
+        device.runMacro(new CommandMacro<String>().addStep("A=1", expect("A:one")), TIMEOUT);
+    }
+
+    private void reply(String... lines) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append("\r\n");
+        }
+
+        transport.getDeviceOutputStream().write(sb.toString().getBytes("ISO-8859-1"));
+    }
+
+    private void respondOnceReceived(final int commandCount, final String... lines) {
+        Thread responder = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    BufferedReader reader = new BufferedReader(new InputStreamReader(
+                            transport.getDeviceInputStream(), "ISO-8859-1"));
+                    for (int i = 0; i < commandCount; ++i) {
+                        reader.readLine();
+                    }
+
+                    reply(lines);
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        responder.setDaemon(true);
+        responder.start();
+    }
+
+    private static CommandMacro.ResponseMatcher<String> expect(final String response) {
+        return new CommandMacro.ResponseMatcher<String>() {
+            @Override
+            public boolean matches(String in) {
+                return in.equals(response);
+            }
+        };
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bugfuzz.android.projectwalrus.device;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PipeSerialTransportTest {
+
+    private PipeSerialTransport transport;
+    private ByteArrayOutputStream received;
+    private CountDownLatch receivedLatch;
+
+    @Before
+    public void setUp() {
+        transport = new PipeSerialTransport();
+        received = new ByteArrayOutputStream();
+
+        transport.open(new SerialTransport.ReadCallback() {
+            @Override
+            public void onReceived(byte[] bytes) {
+                synchronized (received) {
+                    received.write(bytes, 0, bytes.length);
+                    if (receivedLatch != null) {
+                        for (int i = 0; i < bytes.length; ++i) {
+                            receivedLatch.countDown();
+                        }
+                    }
+                }
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        transport.close();
+    }
+
+    @Test
+    public void hostWritesReachDevice() throws IOException {
+        transport.write(new byte[]{1, 2, 3});
+        transport.write(new byte[]{4});
+
+        byte[] buffer = new byte[4];
+        readFully(transport.getDeviceInputStream(), buffer);
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, buffer);
+    }
+
+    @Test
+    public void deviceWritesFromExitedThreadsReachHost() throws Exception {
+        expectBytes(6);
+
+        for (int i = 0; i < 3; ++i) {
+            final byte value = (byte) i;
+            Thread writer = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        transport.getDeviceOutputStream().write(new byte[]{value, value});
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            });
+            writer.start();
+            writer.join();
+        }
+
+        assertTrue(receivedLatch.await(5, TimeUnit.SECONDS));
+        synchronized (received) {
+            assertArrayEquals(new byte[]{0, 0, 1, 1, 2, 2}, received.toByteArray());
+        }
+    }
+
+    @Test
+    public void deviceReadsFromExitedWriterThread() throws Exception {
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                transport.write(new byte[]{5, 6});
+            }
+        });
+        writer.start();
+        writer.join();
+
+        byte[] buffer = new byte[2];
+        readFully(transport.getDeviceInputStream(), buffer);
+        assertArrayEquals(new byte[]{5, 6}, buffer);
+    }
+
+    @Test
+    public void closeDrainsThenEndsDeviceInput() throws IOException {
+        transport.write(new byte[]{7});
+        transport.close();
+
+        InputStream in = transport.getDeviceInputStream();
+        assertEquals(7, in.read());
+        assertEquals(-1, in.read());
+    }
+
+    @Test
+    public void closeWakesBlockedDeviceReader() throws Exception {
+        final int[] result = new int[]{0};
+        Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    result[0] = transport.getDeviceInputStream().read();
+                } catch (IOException e) {
+                    result[0] = -2;
+                }
+            }
+        });
+        reader.start();
+
+        transport.close();
+        reader.join(5000);
+
+        assertEquals(-1, result[0]);
+    }
+
+    @Test
+    public void writesAfterCloseFailCleanly() {
+        transport.close();
+
+        transport.write(new byte[]{1});
+
+        OutputStream out = transport.getDeviceOutputStream();
+        try {
+            out.write(1);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Pipe closed", e.getMessage());
+        }
+    }
+
+    private void expectBytes(int count) {
+        synchronized (received) {
+            receivedLatch = new CountDownLatch(count);
+        }
+    }
+
+    private static void readFully(InputStream in, byte[] buffer) throws IOException {
+        int offset = 0;
+        while (offset < buffer.length) {
+            int length = in.read(buffer, offset, buffer.length - offset);
+            if (length == -1) {
+                throw new IOException("Unexpected end of stream");
+            }
+            offset += length;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bugfuzz.android.projectwalrus.device;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+public class RttEstimatorTest {
+
+    @Test
+    public void startsAtInitialTimeout() {
+        assertEquals(1000, new RttEstimator(1000, 10, 60000).getTimeout());
+    }
+
+    @Test
+    public void firstSampleSetsSmoothedRttAndHalfVariance() {
+        RttEstimator rttEstimator = new RttEstimator(1000, 10, 60000);
+
+        rttEstimator.onSample(millis(100));
+
+        // SRTT = R, RTTVAR = R / 2, RTO = SRTT + 4 * RTTVAR
+        assertEquals(300, rttEstimator.getTimeout());
+    }
+
+    @Test
+    public void laterSamplesUpdateVarianceFromPreviousSmoothedRtt() {
+        RttEstimator rttEstimator = new RttEstimator(1000, 10, 60000);
+
+        rttEstimator.onSample(millis(100));
+        rttEstimator.onSample(millis(200));
+
+        // RTTVAR = 50 + (|100 - 200| - 50) / 4 = 62.5, then SRTT = 100 + (200 - 100) / 8 = 112.5
+        assertEquals(362, rttEstimator.getTimeout());
+    }
+
+    @Test
+    public void convergesOnSteadyRtt() {
+        RttEstimator rttEstimator = new RttEstimator(1000, 10, 60000);
+
+        for (int i = 0; i < 100; ++i) {
+            rttEstimator.onSample(millis(50));
+        }
+
+        assertEquals(50, rttEstimator.getTimeout());
+    }
+
+    @Test
+    public void backsOffExponentiallyOnTimeout() {
+        RttEstimator rttEstimator = new RttEstimator(1000, 10, 60000);
+        rttEstimator.onSample(millis(100));
+
+        rttEstimator.onTimeout();
+        assertEquals(600, rttEstimator.getTimeout());
+        rttEstimator.onTimeout();
+        assertEquals(1200, rttEstimator.getTimeout());
+
+        // A fresh sample recomputes the timeout rather than keeping the backed off value
+        rttEstimator.onSample(millis(100));
+        assertEquals(250, rttEstimator.getTimeout());
+    }
+
+    @Test
+    public void clampsToLimits() {
+        RttEstimator rttEstimator = new RttEstimator(1000, 200, 2000);
+
+        rttEstimator.onSample(millis(10));
+        assertEquals(200, rttEstimator.getTimeout());
+
+        for (int i = 0; i < 10; ++i) {
+            rttEstimator.onTimeout();
+        }
+        assertEquals(2000, rttEstimator.getTimeout());
+
+        rttEstimator.setLimits(200, 500);
+        assertEquals(500, rttEstimator.getTimeout());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvertedLimits() {
+        new RttEstimator(1000, 500, 200);
+    }
+
+    private static long millis(long millis) {
+        return TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bugfuzz.android.projectwalrus.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+public class SerialDeviceStatsTest {
+
+    @Test
+    public void keyedResponseAnswersCommandWithSameKey() {
+        SerialDeviceStats stats = new SerialDeviceStats();
+
+        stats.onFrameOut("A", true);
+        stats.onFrameOut("B", true);
+        stats.onFrameIn(true, "B");
+
+        Map<String, SerialDeviceStats.LatencyHistogram> latencies = stats.getLatencies();
+        assertNull(latencies.get("A"));
+        assertEquals(1, latencies.get("B").getCount());
+
+        stats.onFrameIn(true, null);
+
+        assertEquals(1, stats.getLatencies().get("A").getCount());
+    }
+
+    @Test
+    public void keyedResponseWithNoMatchingCommandIsIgnored() {
+        SerialDeviceStats stats = new SerialDeviceStats();
+
+        stats.onFrameOut("A", true);
+        stats.onFrameIn(true, "B");
+
+        assertEquals(0, stats.getLatencies().size());
+
+        stats.onFrameIn(true, "A");
+
+        assertEquals(1, stats.getLatencies().get("A").getCount());
+    }
+
+    @Test
+    public void commandWithoutResponseIsNotPaired() {
+        SerialDeviceStats stats = new SerialDeviceStats();
+
+        stats.onFrameOut("A", false);
+        stats.onFrameOut("B", true);
+        stats.onFrameIn(true, null);
+
+        Map<String, SerialDeviceStats.LatencyHistogram> latencies = stats.getLatencies();
+        assertNull(latencies.get("A"));
+        assertEquals(1, latencies.get("B").getCount());
+        assertEquals(2, stats.getFramesOut());
+    }
+
+    @Test
+    public void nonResponseFrameIsNotPaired() {
+        SerialDeviceStats stats = new SerialDeviceStats();
+
+        stats.onFrameOut("A", true);
+        stats.onFrameIn(false, null);
+
+        assertEquals(0, stats.getLatencies().size());
+        assertEquals(1, stats.getFramesIn());
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bugfuzz.android.projectwalrus.device;
+
+import android.support.v7.app.AppCompatActivity;
+
+import com.bugfuzz.android.projectwalrus.card.carddata.CardData;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+// A line-based device whose commands look like "KEY=value" and whose responses look like
+// "KEY:result" or just "result", with "#" lines being unsolicited debug output
+class TestLineDevice extends LineBasedUsbSerialCardDevice {
+
+    static final ReceiveSink<String, String> ANY_RESPONSE = new ReceiveSink<String, String>() {
+        @Override
+        public String onReceived(String in) {
+            return in.startsWith("#") ? null : in;
+        }
+    };
+
+    final List<String> recycled = Collections.synchronizedList(new ArrayList<String>());
+
+    TestLineDevice(SerialTransport serialTransport) throws IOException {
+        super(new TestContext(), serialTransport, "\r\n", "ISO-8859-1", "idle");
+    }
+
+    @Override
+    protected String getCommandKey(String out) {
+        int index = out.indexOf('=');
+        return index != -1 ? out.substring(0, index) : out;
+    }
+
+    @Override
+    protected String getResponseKey(String in) {
+        int index = in.indexOf(':');
+        return index != -1 ? in.substring(0, index) : null;
+    }
+
+    @Override
+    protected boolean isResponseFrame(String in) {
+        return !in.startsWith("#");
+    }
+
+    @Override
+    protected void recycleIncoming(String in) {
+        recycled.add(in);
+    }
+
+    @Override
+    public void createReadCardDataOperation(AppCompatActivity activity,
+            Class<? extends CardData> cardDataClass, int callbackId) {
+    }
+
+    @Override
+    public void createWriteOrEmulateDataOperation(AppCompatActivity activity, CardData cardData,
+            boolean write, int callbackId) {
+    }
+}
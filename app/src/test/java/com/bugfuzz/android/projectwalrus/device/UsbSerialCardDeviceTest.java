@@ -0,0 +1,152 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bugfuzz.android.projectwalrus.device;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Collections;
+
+public class UsbSerialCardDeviceTest {
+
+    private static final long TIMEOUT = 2000;
+
+    private PipeSerialTransport transport;
+    private TestLineDevice device;
+
+    @Before
+    public void setUp() throws IOException {
+        transport = new PipeSerialTransport();
+        device = new TestLineDevice(transport);
+        device.start();
+    }
+
+    @After
+    public void tearDown() {
+        device.close();
+    }
+
+    @Test
+    public void keyedResponsesCompleteTheirOwnCommand() throws IOException {
+        UsbSerialCardDevice.PendingReceive<String, String> first =
+                device.sendForResult("A=1", TestLineDevice.ANY_RESPONSE, TIMEOUT);
+        UsbSerialCardDevice.PendingReceive<String, String> second =
+                device.sendForResult("B=2", TestLineDevice.ANY_RESPONSE, TIMEOUT);
+
+        reply("B:two", "A:one");
+
+        assertEquals("A:one", first.await());
+        assertEquals("B:two", second.await());
+    }
+
+    @Test
+    public void unkeyedResponsesCompleteInOrder() throws IOException {
+        UsbSerialCardDevice.PendingReceive<String, String> first =
+                device.sendForResult("A=1", TestLineDevice.ANY_RESPONSE, TIMEOUT);
+        UsbSerialCardDevice.PendingReceive<String, String> second =
+                device.sendForResult("B=2", TestLineDevice.ANY_RESPONSE, TIMEOUT);
+
+        reply("#debug", "one", "two");
+
+        assertEquals("one", first.await());
+        assertEquals("two", second.await());
+    }
+
+    @Test
+    public void cancelledReceiveSwallowsItsLateResponse() throws IOException {
+        UsbSerialCardDevice.PendingReceive<String, String> attempt =
+                device.sendForResult("A=1", TestLineDevice.ANY_RESPONSE, TIMEOUT);
+        attempt.cancel();
+
+        UsbSerialCardDevice.PendingReceive<String, String> retry =
+                device.sendForResult("B=2", TestLineDevice.ANY_RESPONSE, TIMEOUT);
+
+        reply("#debug", "late", "one");
+
+        assertNull(attempt.await());
+        assertEquals("one", retry.await());
+    }
+
+    @Test
+    public void timedOutReceiveSwallowsItsLateKeyedResponse() throws IOException {
+        UsbSerialCardDevice.PendingReceive<String, String> attempt =
+                device.sendForResult("A=1", TestLineDevice.ANY_RESPONSE, 50);
+        assertNull(attempt.await());
+
+        UsbSerialCardDevice.PendingReceive<String, String> retry =
+                device.sendForResult("A=1", TestLineDevice.ANY_RESPONSE, TIMEOUT);
+
+        reply("A:late", "A:one");
+
+        assertEquals("A:one", retry.await());
+    }
+
+    @Test
+    public void abandonedReceiveStopsSwallowingAfterAnotherTimeout()
+            throws IOException, InterruptedException {
+        UsbSerialCardDevice.PendingReceive<String, String> attempt =
+                device.sendForResult("A=1", TestLineDevice.ANY_RESPONSE, 50);
+        attempt.cancel();
+
+        Thread.sleep(150);
+
+        UsbSerialCardDevice.PendingReceive<String, String> retry =
+                device.sendForResult("A=1", TestLineDevice.ANY_RESPONSE, TIMEOUT);
+
+        reply("one");
+
+        assertEquals("one", retry.await());
+    }
+
+    @Test
+    public void completedReceiveRecyclesOnlyFramesItDoesNotReturn() throws IOException {
+        UsbSerialCardDevice.PendingReceive<String, Integer> converted = device.sendForResult(
+                "A=1", new UsbSerialCardDevice.ReceiveSink<String, Integer>() {
+                    @Override
+                    public Integer onReceived(String in) {
+                        return in.length();
+                    }
+                }, TIMEOUT);
+        reply("A:one");
+        assertEquals(5, (int) converted.await());
+
+        UsbSerialCardDevice.PendingReceive<String, String> returned =
+                device.sendForResult("B=2", TestLineDevice.ANY_RESPONSE, TIMEOUT);
+        reply("B:two");
+        assertEquals("B:two", returned.await());
+
+        // Frames are handled in order on the I/O thread, so the first frame has been dealt with
+        // by the time the second completes
+        assertEquals(Collections.singletonList("A:one"), device.recycled);
+    }
+
+    private void reply(String... lines) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        for (String line : lines) {
+            sb.append(line).append("\r\n");
+        }
+
+        transport.getDeviceOutputStream().write(sb.toString().getBytes("ISO-8859-1"));
+    }
+}
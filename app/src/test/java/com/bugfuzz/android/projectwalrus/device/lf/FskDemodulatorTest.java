@@ -0,0 +1,127 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bugfuzz.android.projectwalrus.device.lf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class FskDemodulatorTest {
+
+    private static final String BITS = "0001110110011010010110101001100101";
+
+    @Test
+    public void demodulatesFsk() {
+        SymbolCollector symbols = new SymbolCollector();
+        FskDemodulator demodulator = new FskDemodulator(50, 8, 10, symbols);
+
+        byte[] samples = fsk(BITS, 50, 8, 10, 0, null);
+        demodulator.onSamples(samples, 0, samples.length);
+        demodulator.onEnd();
+
+        assertEquals(BITS, symbols.toString());
+        assertEquals(1, symbols.endCount);
+    }
+
+    @Test
+    public void demodulatesNoisyFskAcrossChunks() {
+        String bits = BITS + BITS + BITS;
+
+        SymbolCollector symbols = new SymbolCollector();
+        FskDemodulator demodulator = new FskDemodulator(50, 8, 10, symbols);
+
+        byte[] samples = fsk(bits, 50, 8, 10, 10, new Random(1));
+        for (int offset = 0; offset < samples.length; offset += 37) {
+            demodulator.onSamples(samples, offset, Math.min(37, samples.length - offset));
+        }
+        demodulator.onEnd();
+
+        assertTrue(symbols.toString(), symbols.toString().contains(BITS + BITS));
+    }
+
+    @Test
+    public void startsAfreshAfterEnd() {
+        SymbolCollector symbols = new SymbolCollector();
+        FskDemodulator demodulator = new FskDemodulator(50, 8, 10, symbols);
+
+        byte[] samples = fsk(BITS, 50, 8, 10, 0, null);
+        demodulator.onSamples(samples, 0, samples.length);
+        demodulator.onEnd();
+        String first = symbols.toString();
+
+        demodulator.onSamples(samples, 0, samples.length);
+        demodulator.onEnd();
+
+        assertEquals(first + first, symbols.toString());
+        assertEquals(2, symbols.endCount);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsLongWavesNoLongerThanShortWaves() {
+        new FskDemodulator(50, 10, 10, new SymbolCollector());
+    }
+
+    // Continuous-phase FSK around the ADC's midpoint, with long waves for ones
+    static byte[] fsk(String bits, int symbolLength, int shortWaveLength, int longWaveLength,
+            int noise, Random random) {
+        byte[] samples = new byte[bits.length() * symbolLength];
+
+        double phase = 0;
+        for (int i = 0; i < samples.length; ++i) {
+            int waveLength = bits.charAt(i / symbolLength) == '1' ? longWaveLength
+                    : shortWaveLength;
+            phase += 2 * Math.PI / waveLength;
+
+            int sample = 128 + (int) Math.round(60 * Math.sin(phase));
+            if (noise != 0) {
+                sample += random.nextInt(noise * 2 + 1) - noise;
+            }
+            samples[i] = (byte) sample;
+        }
+
+        return samples;
+    }
+
+    static class SymbolCollector implements LfSymbolSink {
+
+        private final StringBuilder symbols = new StringBuilder();
+        int endCount;
+
+        @Override
+        public void onSymbols(int value, int count) {
+            for (int i = 0; i < count; ++i) {
+                symbols.append(value);
+            }
+        }
+
+        @Override
+        public void onEnd() {
+            ++endCount;
+        }
+
+        @Override
+        public String toString() {
+            return symbols.toString();
+        }
+    }
+}
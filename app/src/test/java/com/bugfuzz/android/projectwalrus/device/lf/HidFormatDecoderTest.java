@@ -0,0 +1,132 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bugfuzz.android.projectwalrus.device.lf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.bugfuzz.android.projectwalrus.card.carddata.CardData;
+import com.bugfuzz.android.projectwalrus.card.carddata.HIDCardData;
+import com.bugfuzz.android.projectwalrus.device.ReadCardDataOperation;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class HidFormatDecoderTest {
+
+    private static final long TAG_ID = 0x2006ec0c86L;
+
+    private final List<BigInteger> tagIds = new ArrayList<>();
+    private final ReadCardDataOperation.ResultSink resultSink =
+            new ReadCardDataOperation.ResultSink() {
+                @Override
+                public void onResult(CardData cardData) {
+                    tagIds.add(((HIDCardData) cardData).data);
+                }
+            };
+
+    @Test
+    public void decodesFrameFromSymbols() {
+        HidFormatDecoder decoder = new HidFormatDecoder(resultSink);
+
+        feed(decoder, "0110" + frame(TAG_ID));
+
+        assertEquals(1, tagIds.size());
+        assertEquals(BigInteger.valueOf(TAG_ID), tagIds.get(0));
+    }
+
+    @Test
+    public void reportsRepeatedFrameOnce() {
+        HidFormatDecoder decoder = new HidFormatDecoder(resultSink);
+
+        feed(decoder, frame(TAG_ID) + frame(TAG_ID) + frame(TAG_ID));
+        assertEquals(1, tagIds.size());
+
+        feed(decoder, frame(TAG_ID + 1));
+        assertEquals(2, tagIds.size());
+        assertEquals(BigInteger.valueOf(TAG_ID + 1), tagIds.get(1));
+
+        decoder.onEnd();
+        feed(decoder, frame(TAG_ID + 1));
+        assertEquals(3, tagIds.size());
+    }
+
+    @Test
+    public void ignoresInvalidManchester() {
+        HidFormatDecoder decoder = new HidFormatDecoder(resultSink);
+
+        String frame = frame(TAG_ID);
+        int pair = 8 + 2 * 20;
+        feed(decoder, frame.substring(0, pair) + "11" + frame.substring(pair + 2));
+
+        assertTrue(tagIds.isEmpty());
+    }
+
+    @Test
+    public void ignoresPartialFrameAcrossEnd() {
+        HidFormatDecoder decoder = new HidFormatDecoder(resultSink);
+
+        String frame = frame(TAG_ID);
+        feed(decoder, frame.substring(0, 50));
+        decoder.onEnd();
+        feed(decoder, frame.substring(50));
+
+        assertTrue(tagIds.isEmpty());
+    }
+
+    @Test
+    public void decodesFskSamples() {
+        String frame = frame(TAG_ID);
+        byte[] samples = FskDemodulatorTest.fsk(frame.substring(37) + frame + frame,
+                HidFormatDecoder.SYMBOL_LENGTH, HidFormatDecoder.SHORT_WAVE_LENGTH,
+                HidFormatDecoder.LONG_WAVE_LENGTH, 10, new Random(1));
+
+        FskDemodulator demodulator = new FskDemodulator(HidFormatDecoder.SYMBOL_LENGTH,
+                HidFormatDecoder.SHORT_WAVE_LENGTH, HidFormatDecoder.LONG_WAVE_LENGTH,
+                new HidFormatDecoder(resultSink));
+        for (int offset = 0; offset < samples.length; offset += 512) {
+            demodulator.onSamples(samples, offset, Math.min(512, samples.length - offset));
+        }
+        demodulator.onEnd();
+
+        assertEquals(1, tagIds.size());
+        assertEquals(BigInteger.valueOf(TAG_ID), tagIds.get(0));
+    }
+
+    // The 00011101 preamble followed by the 44-bit ID, Manchester-coded with 10 for a one
+    private static String frame(long tagId) {
+        StringBuilder sb = new StringBuilder("00011101");
+        for (int i = 43; i >= 0; --i) {
+            sb.append((tagId >>> i & 1) == 1 ? "10" : "01");
+        }
+
+        return sb.toString();
+    }
+
+    private static void feed(LfSymbolSink symbolSink, String symbols) {
+        for (int i = 0; i < symbols.length(); ++i) {
+            symbolSink.onSymbols(symbols.charAt(i) - '0', 1);
+        }
+    }
+}
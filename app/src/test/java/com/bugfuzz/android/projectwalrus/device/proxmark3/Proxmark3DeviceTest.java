@@ -0,0 +1,128 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.bugfuzz.android.projectwalrus.device.proxmark3;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class Proxmark3DeviceTest {
+
+    // What ReadHIDOperation used before parsing tag IDs in place
+    private static final Pattern TAG_ID = Pattern.compile("TAG ID: ([0-9a-fA-F]+)");
+
+    private static final String TAG_LINE =
+            "TAG ID: 2004263f88 (6088) - Format Len: 26bit - FC: 19 - Card: 6088";
+    private static final String[] LINES = {
+            TAG_LINE,
+            "TAG ID: 1e (0) - Format Len: 0bit - FC: 0 - Card: 0",
+            "TAG ID: 2004263F88 (6088) - Format Len: 26bit - FC: 19 - Card: 6088",
+            "TAG ID: 2004263f88",
+            "TAG ID: 2004263f88zz",
+            "TAG ID: 1a2b3c4d5e6f708192a3 (0) - Format Len: 37bit - FC: 0 - Card: 0",
+            "TAG ID: ffffffffffffffff",
+            "TAG ID: 10000000000000000",
+            "TAG ID: ffffffffffffffffffffffffffffffff",
+            "TAG ID: 123456789abcdef0123456789abcdef0123456789",
+            "TAG ID: (6088)",
+            "TAG ID: zz TAG ID: 2004263f88",
+            "TAG ID:2004263f88",
+            "tag id: 2004263f88",
+            "noise TAG ID: 2004263f88 (6088)",
+            "Stopped",
+            "",
+    };
+
+    @Test
+    public void parsesTagIdsLikeTheRegexInLegacyFrames() {
+        for (String line : LINES) {
+            Proxmark3Command in = legacyDebugString(line);
+            assertEquals(line, parseTagIdWithRegex(in), Proxmark3Device.ReadHIDOperation
+                    .parseTagId(in));
+        }
+    }
+
+    @Test
+    public void parsesTagIdsLikeTheRegexInNgFrames() {
+        for (String line : LINES) {
+            Proxmark3Command in = ngDebugString(line);
+            assertEquals(line, parseTagIdWithRegex(in), Proxmark3Device.ReadHIDOperation
+                    .parseTagId(in));
+        }
+    }
+
+    @Test
+    public void parsesTagIdWithinDebugStringBounds() {
+        assertEquals(new BigInteger("2004263f88", 16),
+                Proxmark3Device.ReadHIDOperation.parseTagId(legacyDebugString(TAG_LINE)));
+        assertEquals(BigInteger.valueOf(0x20),
+                Proxmark3Device.ReadHIDOperation.parseTagId(legacyDebugString("TAG ID: 20")));
+        assertNull(Proxmark3Device.ReadHIDOperation.parseTagId(legacyDebugString("TAG ID: ")));
+    }
+
+    @Test
+    public void parsesAutoDetectLfShareDefensively() {
+        assertEquals(25, Proxmark3Device.parseAutoDetectLfShare("25"));
+        assertEquals(50, Proxmark3Device.parseAutoDetectLfShare(null));
+        assertEquals(50, Proxmark3Device.parseAutoDetectLfShare(""));
+        assertEquals(50, Proxmark3Device.parseAutoDetectLfShare("half"));
+        assertEquals(1, Proxmark3Device.parseAutoDetectLfShare("0"));
+        assertEquals(1, Proxmark3Device.parseAutoDetectLfShare("-10"));
+        assertEquals(99, Proxmark3Device.parseAutoDetectLfShare("100"));
+    }
+
+    private static BigInteger parseTagIdWithRegex(Proxmark3Command in) {
+        Matcher matcher = TAG_ID.matcher(in.dataAsString());
+        return matcher.find() ? new BigInteger(matcher.group(1), 16) : null;
+    }
+
+    // Legacy frames always carry 512 bytes of data, with the string length in the first arg
+    private static Proxmark3Command legacyDebugString(String line) {
+        byte[] data = new byte[512];
+        Arrays.fill(data, (byte) '1');
+        byte[] bytes = line.getBytes();
+        System.arraycopy(bytes, 0, data, 0, bytes.length);
+
+        return new Proxmark3Command(Proxmark3Command.DEBUG_PRINT_STRING,
+                new long[]{bytes.length, 0, 0}, data);
+    }
+
+    // NG debug strings follow a flags field and are NUL-terminated
+    private static Proxmark3Command ngDebugString(String line) {
+        byte[] bytes = line.getBytes();
+        byte[] payload = new byte[2 + bytes.length + 2];
+        System.arraycopy(bytes, 0, payload, 2, bytes.length);
+        payload[payload.length - 1] = '1';
+
+        Proxmark3Frame frame = new Proxmark3Frame();
+        assertTrue(frame.decodeNg(Proxmark3FrameTest.buffer(Proxmark3FrameTest.ngResponse(
+                Proxmark3Command.DEBUG_PRINT_STRING, 0, true, payload,
+                Proxmark3FrameTest.POSTAMBLE_MAGIC))));
+
+        return new Proxmark3Command(frame);
+    }
+}
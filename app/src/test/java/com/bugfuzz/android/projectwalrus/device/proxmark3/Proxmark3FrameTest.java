@@ -0,0 +1,371 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bugfuzz.android.projectwalrus.device.proxmark3;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.bugfuzz.android.projectwalrus.util.ByteRingBuffer;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+public class Proxmark3FrameTest {
+
+    static final int POSTAMBLE_MAGIC = 0;
+    static final int POSTAMBLE_CRC = 1;
+    static final int POSTAMBLE_CRC_SWAPPED = 2;
+    static final int POSTAMBLE_BAD_CRC = 3;
+
+    @Test
+    public void encodesNgCommand() {
+        Proxmark3Command command = new Proxmark3Command(Proxmark3Command.MIFARE_READSC,
+                new long[]{3, 1, 0x123456789aL}, new byte[]{1, 2, 3, 4, 5, 6});
+
+        ByteBuffer bb = ByteBuffer.wrap(command.toNgBytes()).order(ByteOrder.LITTLE_ENDIAN);
+
+        assertEquals(8 + 3 * 8 + 6 + 2, bb.remaining());
+        assertEquals(Proxmark3Frame.NG_COMMAND_MAGIC, bb.getInt());
+        assertEquals(3 * 8 + 6, bb.getShort());
+        assertEquals(Proxmark3Command.MIFARE_READSC, bb.getShort());
+        assertEquals(3, bb.getLong());
+        assertEquals(1, bb.getLong());
+        assertEquals(0x123456789aL, bb.getLong());
+
+        byte[] data = new byte[6];
+        bb.get(data);
+        assertArrayEquals(new byte[]{1, 2, 3, 4, 5, 6}, data);
+
+        assertEquals(Proxmark3Frame.NG_COMMAND_POSTAMBLE_MAGIC, bb.getShort());
+    }
+
+    @Test
+    public void cannotEncodeOversizedNgCommand() {
+        assertNull(new Proxmark3Command(Proxmark3Command.MIFARE_CHKKEYS, new long[3],
+                new byte[Proxmark3Frame.NG_MAX_PAYLOAD_LENGTH]).toNgBytes());
+        assertNull(new Proxmark3Command(0x10000).toNgBytes());
+    }
+
+    @Test
+    public void roundTripsNgCommandThroughMixedResponse() {
+        byte[] data = new byte[100];
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = (byte) (i * 7);
+        }
+        Proxmark3Command command = new Proxmark3Command(Proxmark3Command.MIFARE_CHKKEYS,
+                new long[]{-1, 0x8000000000000000L, 42}, data);
+
+        // Echo the command's payload back as the firmware would in a mixed response
+        byte[] bytes = command.toNgBytes();
+        byte[] payload = Arrays.copyOfRange(bytes, 8, bytes.length - 2);
+
+        Proxmark3Frame frame = new Proxmark3Frame();
+        assertTrue(frame.decodeNg(buffer(ngResponse(command.op, 0, false, payload,
+                POSTAMBLE_CRC))));
+
+        assertEquals(command.op, frame.op);
+        assertFalse(frame.ng);
+        assertArrayEquals(command.args, frame.args);
+        assertEquals(data.length, frame.dataLength);
+        assertArrayEquals(data, Arrays.copyOf(frame.data, frame.dataLength));
+    }
+
+    @Test
+    public void decodesNgResponse() {
+        Proxmark3Frame frame = new Proxmark3Frame();
+        assertTrue(frame.decodeNg(buffer(ngResponse(Proxmark3Command.VERSION, -2, true,
+                new byte[]{9, 8, 7}, POSTAMBLE_MAGIC))));
+
+        assertEquals(Proxmark3Command.VERSION, frame.op);
+        assertTrue(frame.ng);
+        assertEquals(-2, frame.status);
+        assertArrayEquals(new long[3], frame.args);
+        assertEquals(3, frame.dataLength);
+        assertArrayEquals(new byte[]{9, 8, 7}, Arrays.copyOf(frame.data, 3));
+    }
+
+    @Test
+    public void acceptsCrcInEitherByteOrder() {
+        byte[] payload = new byte[]{1, 2, 3, 4};
+
+        assertTrue(new Proxmark3Frame().decodeNg(buffer(ngResponse(Proxmark3Command.ACK, 0,
+                true, payload, POSTAMBLE_CRC))));
+        assertTrue(new Proxmark3Frame().decodeNg(buffer(ngResponse(Proxmark3Command.ACK, 0,
+                true, payload, POSTAMBLE_CRC_SWAPPED))));
+        assertFalse(new Proxmark3Frame().decodeNg(buffer(ngResponse(Proxmark3Command.ACK, 0,
+                true, payload, POSTAMBLE_BAD_CRC))));
+    }
+
+    @Test
+    public void rejectsMixedResponseTooShortForArgs() {
+        assertFalse(new Proxmark3Frame().decodeNg(buffer(ngResponse(Proxmark3Command.ACK, 0,
+                false, new byte[3 * 8 - 1], POSTAMBLE_MAGIC))));
+    }
+
+    @Test
+    public void decodesLegacyFrame() {
+        ByteBuffer bb = ByteBuffer.allocate(Proxmark3Frame.LEGACY_LENGTH)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        bb.putLong(Proxmark3Command.ACK);
+        bb.putLong(1);
+        bb.putLong(2);
+        bb.putLong(3);
+        bb.put((byte) 0x55);
+
+        Proxmark3Frame frame = new Proxmark3Frame();
+        frame.decodeLegacy(buffer(bb.array()));
+
+        assertEquals(Proxmark3Command.ACK, frame.op);
+        assertFalse(frame.ng);
+        assertArrayEquals(new long[]{1, 2, 3}, frame.args);
+        assertEquals(512, frame.dataLength);
+        assertEquals(0x55, frame.data[0]);
+    }
+
+    @Test
+    public void copiedCommandOutlivesFrameReuse() {
+        Proxmark3Frame frame = new Proxmark3Frame();
+        assertTrue(frame.decodeNg(buffer(ngResponse(Proxmark3Command.ACK, 0, false,
+                new byte[3 * 8 + 2], POSTAMBLE_MAGIC))));
+        frame.args[0] = 1;
+        frame.data[0] = 2;
+
+        Proxmark3Command copy = new Proxmark3Command(new Proxmark3Command(frame));
+
+        assertTrue(frame.decodeNg(buffer(ngResponse(Proxmark3Command.VERSION, -1, true,
+                new byte[8], POSTAMBLE_MAGIC))));
+
+        assertEquals(Proxmark3Command.ACK, copy.op);
+        assertEquals(1, copy.args[0]);
+        assertArrayEquals(new byte[]{2, 0}, copy.data);
+        assertNull(copy.takeFrame());
+    }
+
+    @Test
+    public void poolReusesRecycledFramesUpToCapacity() {
+        Proxmark3Frame.Pool pool = new Proxmark3Frame.Pool(1);
+
+        Proxmark3Frame first = pool.obtain();
+        Proxmark3Frame second = pool.obtain();
+        assertNotSame(first, second);
+
+        pool.recycle(first);
+        pool.recycle(second);
+
+        assertSame(first, pool.obtain());
+        assertNotSame(second, pool.obtain());
+    }
+
+    @Test
+    public void poolRejectsSecondConsumer() throws InterruptedException {
+        final Proxmark3Frame.Pool pool = new Proxmark3Frame.Pool(4);
+        pool.obtain();
+
+        final boolean[] rejected = new boolean[1];
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    pool.obtain();
+                } catch (IllegalStateException e) {
+                    rejected[0] = true;
+                }
+            }
+        });
+        other.start();
+        other.join();
+
+        assertTrue(rejected[0]);
+    }
+
+    @Test
+    public void poolAcceptsRecyclingFromOtherThreads() throws InterruptedException {
+        final Proxmark3Frame.Pool pool = new Proxmark3Frame.Pool(4);
+        final Proxmark3Frame frame = pool.obtain();
+
+        Thread other = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pool.recycle(frame);
+            }
+        });
+        other.start();
+        other.join();
+
+        try {
+            assertSame(frame, pool.obtain());
+        } catch (IllegalStateException e) {
+            fail();
+        }
+    }
+
+    @Test
+    public void slicerWaitsForTruncatedNgFrame() {
+        byte[] response = ngResponse(Proxmark3Command.VERSION, 0, true, new byte[100],
+                POSTAMBLE_CRC);
+        Proxmark3Frame.Slicer slicer = new Proxmark3Frame.Slicer(new Proxmark3Frame.Pool(4));
+
+        ByteRingBuffer in = buffer(Arrays.copyOf(response, 6));
+        assertNull(slicer.slice(in));
+        assertEquals(6, in.size());
+
+        in.write(response, 6, 50);
+        assertNull(slicer.slice(in));
+        assertEquals(56, in.size());
+
+        in.write(response, 56, response.length - 56);
+        Proxmark3Frame frame = slicer.slice(in);
+        assertEquals(Proxmark3Command.VERSION, frame.op);
+        assertEquals(0, in.size());
+        assertTrue(slicer.isNgFraming());
+    }
+
+    @Test
+    public void slicerSkipsCorruptLengthWithoutWaiting() {
+        byte[] corrupt = ngResponse(Proxmark3Command.ACK, 0, true, new byte[4], POSTAMBLE_MAGIC);
+        corrupt[4] = (byte) 0xff;
+        corrupt[5] = (byte) 0xff;
+        byte[] good = ngResponse(Proxmark3Command.VERSION, 0, true, new byte[4],
+                POSTAMBLE_MAGIC);
+        Proxmark3Frame.Slicer slicer = new Proxmark3Frame.Slicer(new Proxmark3Frame.Pool(4));
+
+        // Only the header of the corrupt frame has arrived, and it claims a 32K payload
+        ByteRingBuffer in = buffer(Arrays.copyOf(corrupt, 10));
+        assertNull(slicer.slice(in));
+        assertTrue(in.size() < 4);
+
+        in.write(Arrays.copyOfRange(corrupt, 10, corrupt.length));
+        in.write(good);
+        assertEquals(Proxmark3Command.VERSION, slicer.slice(in).op);
+        assertEquals(0, in.size());
+    }
+
+    @Test
+    public void slicerSkipsBadCrcFrameToNextMagic() {
+        ByteRingBuffer in = buffer(
+                ngResponse(Proxmark3Command.ACK, 0, true, new byte[]{1, 2}, POSTAMBLE_BAD_CRC),
+                ngResponse(Proxmark3Command.VERSION, 0, true, new byte[]{3}, POSTAMBLE_CRC));
+        Proxmark3Frame.Slicer slicer = new Proxmark3Frame.Slicer(new Proxmark3Frame.Pool(4));
+
+        Proxmark3Frame frame = slicer.slice(in);
+        assertEquals(Proxmark3Command.VERSION, frame.op);
+        assertEquals(3, frame.data[0]);
+        assertNull(slicer.slice(in));
+    }
+
+    @Test
+    public void slicerSwitchesFromLegacyToNgFraming() {
+        ByteBuffer legacy = ByteBuffer.allocate(Proxmark3Frame.LEGACY_LENGTH)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        legacy.putLong(Proxmark3Command.ACK);
+
+        byte[] mixed = ngResponse(Proxmark3Command.ACK, 0, false, new byte[3 * 8 + 1],
+                POSTAMBLE_CRC);
+        byte[] ng = ngResponse(Proxmark3Command.VERSION, 0, true, new byte[1],
+                POSTAMBLE_MAGIC);
+        byte[] garbage = new byte[Proxmark3Frame.LEGACY_LENGTH];
+        garbage[garbage.length - 2] = 'P';
+        garbage[garbage.length - 1] = 'M';
+
+        ByteRingBuffer in = buffer(legacy.array(), mixed);
+        Proxmark3Frame.Slicer slicer = new Proxmark3Frame.Slicer(new Proxmark3Frame.Pool(4));
+
+        Proxmark3Frame frame = slicer.slice(in);
+        assertEquals(Proxmark3Command.ACK, frame.op);
+        assertFalse(slicer.isNgFraming());
+
+        frame = slicer.slice(in);
+        assertEquals(Proxmark3Command.ACK, frame.op);
+        assertFalse(frame.ng);
+        assertTrue(slicer.isNgFraming());
+
+        // Once NG framing is in use, a legacy-sized run of garbage isn't taken for a frame, even
+        // with the next magic split across writes
+        in.write(garbage);
+        assertNull(slicer.slice(in));
+        in.write(Arrays.copyOfRange(ng, 2, ng.length));
+        assertEquals(Proxmark3Command.VERSION, slicer.slice(in).op);
+        assertEquals(0, in.size());
+
+        slicer.reset();
+        in.write(legacy.array());
+        assertEquals(Proxmark3Command.ACK, slicer.slice(in).op);
+        assertFalse(slicer.isNgFraming());
+    }
+
+    static ByteRingBuffer buffer(byte[]... chunks) {
+        ByteRingBuffer buffer = new ByteRingBuffer(1024);
+        for (byte[] chunk : chunks) {
+            buffer.write(chunk);
+        }
+
+        return buffer;
+    }
+
+    static byte[] ngResponse(long op, int status, boolean ng, byte[] payload, int postamble) {
+        ByteBuffer bb = ByteBuffer.allocate(10 + payload.length + 2)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        bb.putInt(0x62334d50);
+        bb.putShort((short) (payload.length | (ng ? 0x8000 : 0)));
+        bb.putShort((short) status);
+        bb.putShort((short) op);
+        bb.put(payload);
+
+        int crc = crc14443a(bb.array(), 10 + payload.length);
+        switch (postamble) {
+            case POSTAMBLE_MAGIC:
+                bb.putShort((short) 0x3362);
+                break;
+
+            case POSTAMBLE_CRC:
+                bb.putShort((short) crc);
+                break;
+
+            case POSTAMBLE_CRC_SWAPPED:
+                bb.putShort((short) (((crc & 0xff) << 8) | (crc >>> 8)));
+                break;
+
+            default:
+                bb.putShort((short) (crc ^ 1));
+                break;
+        }
+
+        return bb.array();
+    }
+
+    private static int crc14443a(byte[] bytes, int length) {
+        int crc = 0x6363;
+        for (int i = 0; i < length; ++i) {
+            int ch = (bytes[i] ^ crc) & 0xff;
+            ch = (ch ^ (ch << 4)) & 0xff;
+            crc = ((crc >>> 8) ^ (ch << 8) ^ (ch << 3) ^ (ch >>> 4)) & 0xffff;
+        }
+
+        return crc;
+    }
+}
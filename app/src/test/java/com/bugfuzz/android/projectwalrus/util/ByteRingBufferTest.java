@@ -0,0 +1,136 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bugfuzz.android.projectwalrus.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class ByteRingBufferTest {
+
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        assertEquals(8, new ByteRingBuffer(5).capacity());
+        assertEquals(16, new ByteRingBuffer(16).capacity());
+    }
+
+    @Test
+    public void readsBackAcrossWraparound() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8);
+
+        buffer.write(new byte[]{0, 1, 2, 3, 4, 5});
+        buffer.skip(5);
+        buffer.write(new byte[]{6, 7, 8, 9, 10, 11});
+
+        assertEquals(8, buffer.capacity());
+        assertEquals(7, buffer.size());
+        assertArrayEquals(new byte[]{5, 6, 7, 8, 9, 10, 11}, readAll(buffer));
+        for (int i = 0; i < 7; ++i) {
+            assertEquals(5 + i, buffer.get(i));
+        }
+    }
+
+    @Test
+    public void growsWhileWrappedAndKeepsOrder() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8);
+
+        buffer.write(new byte[]{0, 1, 2, 3, 4, 5});
+        buffer.skip(4);
+        buffer.write(new byte[]{6, 7, 8, 9, 10, 11, 12, 13});
+
+        assertEquals(16, buffer.capacity());
+        assertArrayEquals(new byte[]{4, 5, 6, 7, 8, 9, 10, 11, 12, 13}, readAll(buffer));
+    }
+
+    @Test
+    public void fillsExactlyToCapacityWithoutGrowing() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+
+        buffer.write(new byte[]{0, 1, 2});
+        buffer.skip(2);
+        buffer.write(new byte[]{3, 4, 5});
+
+        assertEquals(4, buffer.capacity());
+        assertArrayEquals(new byte[]{2, 3, 4, 5}, readAll(buffer));
+    }
+
+    @Test
+    public void readsLittleEndianLongAcrossWraparound() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8);
+
+        buffer.write(new byte[5]);
+        buffer.skip(5);
+        buffer.write(new byte[]{0x08, 0x07, 0x06, 0x05, 0x04, 0x03, 0x02, (byte) 0x81});
+
+        assertEquals(0x8102030405060708L, buffer.getLongLE(0));
+    }
+
+    @Test
+    public void findsPatternAcrossWraparound() {
+        ByteRingBuffer buffer = new ByteRingBuffer(8);
+
+        buffer.write(new byte[]{0, 0, 0, 0, 0, 0});
+        buffer.skip(6);
+        buffer.write(new byte[]{1, 2, '\r', '\n', 3, '\r', '\n'});
+
+        byte[] delimiter = new byte[]{'\r', '\n'};
+        assertEquals(2, buffer.indexOf(delimiter, 0));
+        assertEquals(5, buffer.indexOf(delimiter, 3));
+        assertEquals(-1, buffer.indexOf(delimiter, 6));
+    }
+
+    @Test
+    public void emptiesOnSkipAndClear() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+
+        buffer.write(new byte[]{1, 2, 3});
+        buffer.skip(3);
+        assertEquals(0, buffer.size());
+
+        buffer.write(new byte[]{4, 5});
+        buffer.clear();
+        assertEquals(0, buffer.size());
+
+        buffer.write(new byte[]{6, 7, 8, 9});
+        assertArrayEquals(new byte[]{6, 7, 8, 9}, readAll(buffer));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsGetPastEnd() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+        buffer.write(new byte[]{1, 2});
+
+        buffer.get(2);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void rejectsSkipPastEnd() {
+        ByteRingBuffer buffer = new ByteRingBuffer(4);
+        buffer.write(new byte[]{1, 2});
+
+        buffer.skip(3);
+    }
+
+    private static byte[] readAll(ByteRingBuffer buffer) {
+        byte[] bytes = new byte[buffer.size()];
+        buffer.read(0, bytes, 0, bytes.length);
+        return bytes;
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2018 Daniel Underhay & Matthew Daley.
+ *
+ * This file is part of Walrus.
+ *
+ * Walrus is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * Walrus is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with Walrus.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.bugfuzz.android.projectwalrus.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SpscRingTest {
+
+    @Test
+    public void roundsCapacityUpToPowerOfTwo() {
+        assertEquals(1, new SpscRing<Integer>(1, false).capacity());
+        assertEquals(4, new SpscRing<Integer>(3, false).capacity());
+        assertEquals(8, new SpscRing<Integer>(8, false).capacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroCapacity() {
+        new SpscRing<Integer>(0, false);
+    }
+
+    @Test
+    public void emptyRingPollsNull() {
+        SpscRing<Integer> ring = new SpscRing<>(4, false);
+
+        assertEquals(0, ring.size());
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void fullRingRejectsOffers() {
+        SpscRing<Integer> ring = new SpscRing<>(4, false);
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(ring.offer(i));
+        }
+
+        assertEquals(4, ring.size());
+        assertFalse(ring.offer(4));
+
+        assertEquals(0, (int) ring.poll());
+        assertTrue(ring.offer(4));
+        assertFalse(ring.offer(5));
+    }
+
+    @Test
+    public void keepsOrderAcrossWraparound() {
+        SpscRing<Integer> ring = new SpscRing<>(4, false);
+
+        int next = 0;
+        int expected = 0;
+        for (int round = 0; round < 100; ++round) {
+            for (int i = 0; i < 3; ++i) {
+                assertTrue(ring.offer(next++));
+            }
+            for (int i = 0; i < 3; ++i) {
+                assertEquals(expected++, (int) ring.poll());
+            }
+
+            assertEquals(0, ring.size());
+        }
+    }
+
+    @Test
+    public void overwritingRingSkipsToNewestAndCountsOverruns() {
+        SpscRing<Integer> ring = new SpscRing<>(4, true);
+        for (int i = 0; i < 6; ++i) {
+            assertTrue(ring.offer(i));
+        }
+
+        assertEquals(4, ring.size());
+
+        // The slot the producer would overwrite next is never handed out
+        assertEquals(3, (int) ring.poll());
+        assertEquals(4, (int) ring.poll());
+        assertEquals(5, (int) ring.poll());
+        assertNull(ring.poll());
+
+        assertEquals(3, ring.takeOverrunCount());
+        assertEquals(0, ring.takeOverrunCount());
+    }
+
+    @Test
+    public void overwritingRingHandsBackOverwrittenElements() {
+        SpscRing<String> ring = new SpscRing<>(4, true);
+        String[] elements = {"a", "b", "c", "d", "e", "f"};
+
+        for (int i = 0; i < 4; ++i) {
+            ring.offer(elements[i]);
+            assertNull(ring.takeOverwritten());
+        }
+
+        ring.offer(elements[4]);
+        assertSame(elements[0], ring.takeOverwritten());
+        assertNull(ring.takeOverwritten());
+
+        // Elements the consumer has taken aren't handed back again
+        assertSame(elements[2], ring.poll());
+        assertSame(elements[3], ring.poll());
+        ring.offer(elements[5]);
+        assertSame(elements[1], ring.takeOverwritten());
+        assertSame(elements[4], ring.poll());
+        ring.offer(elements[0]);
+        assertNull(ring.takeOverwritten());
+    }
+
+    @Test
+    public void overwritingRingBehavesNormallyWhileNotFull() {
+        SpscRing<Integer> ring = new SpscRing<>(4, true);
+        ring.offer(0);
+        ring.offer(1);
+
+        assertEquals(0, (int) ring.poll());
+        assertEquals(1, (int) ring.poll());
+        assertEquals(0, ring.takeOverrunCount());
+    }
+
+    @Test
+    public void clearDropsEverything() {
+        SpscRing<Integer> ring = new SpscRing<>(4, false);
+        ring.offer(0);
+        ring.offer(1);
+
+        ring.clear();
+
+        assertEquals(0, ring.size());
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void handsOffInOrderBetweenThreads() throws InterruptedException {
+        final SpscRing<Integer> ring = new SpscRing<>(16, false);
+        final int count = 200000;
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; ++i) {
+                    while (!ring.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+
+        for (int expected = 0; expected < count; ) {
+            Integer element = ring.poll();
+            if (element == null) {
+                Thread.yield();
+                continue;
+            }
+
+            assertEquals(expected++, (int) element);
+        }
+
+        producer.join();
+        assertNull(ring.poll());
+    }
+}